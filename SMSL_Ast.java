@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Typed syntax tree built once by SMSL_Parser and walked by the later phases.
+// Names are interned in the program's symbol table; each node keeps the name's ID.
+public class SMSL_Ast {
+
+    public abstract static class Node {
+        public final int line;
+        public final int column; // Of the node's first token
+
+        protected Node(int line, int column) {
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    public static class Program extends Node {
+        public final List<Node> items = new ArrayList<>(); // StateDecl or TransitionDecl
+        public final List<ImportDecl> imports = new ArrayList<>();
+        public final SMSL_SymbolTable symbols;
+
+        public Program(SMSL_SymbolTable symbols) {
+            super(1, 1);
+            this.symbols = symbols;
+        }
+    }
+
+    // import "<path>"; the path is relative to the importing file
+    public static class ImportDecl extends Node {
+        public final String path; // Without the quotes
+
+        public ImportDecl(int line, int column, String path) {
+            super(line, column);
+            this.path = path;
+        }
+    }
+
+    // state <name> { (action | transition)* }
+    public static class StateDecl extends Node {
+        public final String name;
+        public final int id;
+        public final List<Node> body = new ArrayList<>(); // ActionStmt or TransitionDecl
+        public boolean recovered; // The parser skipped part of the state after a syntax error
+
+        public StateDecl(int line, int column, String name, int id) {
+            super(line, column);
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    // transition <name>: event <event> -> <target> { action* }
+    public static class TransitionDecl extends Node {
+        public final String name;
+        public final int id;
+        public final String event; // null when the event name is missing
+        public final int eventId; // -1 when the event name is missing
+        public final String target;
+        public final int targetId;
+        public final List<ActionStmt> actions = new ArrayList<>();
+
+        public TransitionDecl(int line, int column, String name, int id, String event, int eventId,
+                              String target, int targetId) {
+            super(line, column);
+            this.name = name;
+            this.id = id;
+            this.event = event;
+            this.eventId = eventId;
+            this.target = target;
+            this.targetId = targetId;
+        }
+    }
+
+    // action <name>;
+    public static class ActionStmt extends Node {
+        public final String name;
+        public final int id;
+
+        public ActionStmt(int line, int column, String name, int id) {
+            super(line, column);
+            this.name = name;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Compiles every .smsl file of a directory in parallel on a fork-join pool.
+// Each file gets its own SMSL_Compiler instance, so compilations share no state.
+public class SMSL_BatchCompiler {
+    private final int parallelism;
+    private final boolean useRegexLexer;
+    private final int maxErrors; // Per file; 0 for no limit
+
+    public SMSL_BatchCompiler(int parallelism, boolean useRegexLexer) {
+        this(parallelism, useRegexLexer, 0);
+    }
+
+    public SMSL_BatchCompiler(int parallelism, boolean useRegexLexer, int maxErrors) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        if (maxErrors < 0) throw new IllegalArgumentException("Error limit must not be negative: " + maxErrors);
+        this.parallelism = parallelism;
+        this.useRegexLexer = useRegexLexer;
+        this.maxErrors = maxErrors;
+    }
+
+    public List<SMSL_CompilationResult> compileDirectory(Path directory) throws IOException, InterruptedException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.smsl")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return compileFiles(files);
+    }
+
+    public List<SMSL_CompilationResult> compileFiles(List<Path> files) throws IOException, InterruptedException {
+        List<Callable<SMSL_CompilationResult>> tasks = new ArrayList<>(files.size());
+        for (Path file : files) {
+            tasks.add(() -> {
+                try {
+                    return new SMSL_Compiler(useRegexLexer, null, maxErrors).compile(SMSL_Source.fromFile(file));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<SMSL_CompilationResult> results = new ArrayList<>(files.size());
+            for (Future<SMSL_CompilationResult> future : pool.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof UncheckedIOException) {
+                        throw ((UncheckedIOException) e.getCause()).getCause();
+                    }
+                    throw new IllegalStateException("Compilation failed", e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void run(Path directory, int parallelism, boolean useRegexLexer, int maxErrors,
+                           SMSL_Reporter reporter) {
+        long startTime = System.nanoTime();
+        List<SMSL_CompilationResult> results;
+        try {
+            results = new SMSL_BatchCompiler(parallelism, useRegexLexer, maxErrors).compileDirectory(directory);
+        } catch (IOException e) {
+            reporter.message(SMSL_Reporter.Level.ERROR, "Error reading " + directory + ": " + e.getMessage());
+            reporter.flush();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+        int failed = 0;
+        for (SMSL_CompilationResult result : results) {
+            if (result.hasErrors()) failed++;
+            reporter.batchResult(result);
+        }
+        reporter.batchSummary(results.size(), failed, elapsedMillis, parallelism);
+        reporter.flush();
+    }
+}
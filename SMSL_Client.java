@@ -0,0 +1,152 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Thin client for SMSL_Daemon: sends files to a running daemon and prints the
+// output it sends back, the same as SMSL_Compiler --no-cache would print. It
+// loads none of the compiler's classes, so it starts much faster than a compile.
+//
+//   java SMSL_Client [--socket=PATH|PORT] [--lexer=regex|dfa] [--max-errors=N]
+//                    [--output=pretty|quiet|ndjson] [--color=always|never] [--stats] files...
+//   java SMSL_Client [--socket=PATH|PORT] --stop
+//
+// The request latency goes to stderr. Exits with 1 if any file has errors, and
+// with 2 if the daemon can't be reached.
+public final class SMSL_Client {
+    private SMSL_Client() {
+    }
+
+    // A port number means the loopback interface; anything else is a socket path
+    public static SocketAddress address(String spec) {
+        if (!spec.isEmpty() && spec.chars().allMatch(Character::isDigit)) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(spec));
+        }
+        return UnixDomainSocketAddress.of(spec);
+    }
+
+    private static void usageError(String message) {
+        System.err.println("Usage error: " + message);
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String socket = SMSL_Daemon.DEFAULT_ADDRESS;
+        boolean stop = false;
+        boolean useRegexLexer = false;
+        int maxErrors = 0;
+        String mode = "PRETTY";
+        boolean color = System.console() != null && System.getenv("NO_COLOR") == null;
+        boolean printStats = false;
+        List<String> inputs = new ArrayList<>();
+
+        for (String arg : args) {
+            if (arg.startsWith("--socket=")) {
+                socket = arg.substring("--socket=".length());
+            } else if (arg.equals("--stop")) {
+                stop = true;
+            } else if (arg.equals("--lexer=regex")) {
+                useRegexLexer = true;
+            } else if (arg.equals("--lexer=dfa")) {
+                useRegexLexer = false;
+            } else if (arg.startsWith("--max-errors=")) {
+                String value = arg.substring("--max-errors=".length());
+                try {
+                    maxErrors = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    maxErrors = -1;
+                }
+                if (maxErrors < 0) usageError("--max-errors takes a whole number of at least 0, not '" + value + "'");
+            } else if (arg.startsWith("--output=")) {
+                mode = arg.substring("--output=".length()).toUpperCase();
+                if (!mode.equals("PRETTY") && !mode.equals("QUIET") && !mode.equals("NDJSON")) {
+                    usageError("--output takes pretty, quiet or ndjson, not '" + arg.substring("--output=".length()) + "'");
+                }
+            } else if (arg.equals("--color=always")) {
+                color = true;
+            } else if (arg.equals("--color=never")) {
+                color = false;
+            } else if (arg.equals("--stats")) {
+                printStats = true;
+            } else {
+                inputs.add(arg); // File path, or "-" for stdin
+            }
+        }
+        if (!stop && inputs.isEmpty()) {
+            System.err.println("Usage: SMSL_Client [options] files... | SMSL_Client --stop");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        List<byte[]> texts = new ArrayList<>(inputs.size());
+        for (String input : inputs) {
+            try {
+                texts.add(input.equals("-") ? System.in.readAllBytes() : Files.readAllBytes(Paths.get(input)));
+            } catch (IOException e) {
+                System.err.println("Error reading file '" + input + "'!");
+                System.exit(2);
+            }
+        }
+
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(address(socket));
+        } catch (IOException e) {
+            System.err.println("No SMSL daemon on " + socket + " (start one with: java SMSL_Compiler --daemon)");
+            System.exit(2);
+            return;
+        }
+
+        try (channel;
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+            out.writeInt(SMSL_Daemon.MAGIC);
+            out.writeInt(SMSL_Daemon.VERSION);
+            if (stop) {
+                out.writeByte(SMSL_Daemon.STOP);
+            } else {
+                out.writeByte(SMSL_Daemon.COMPILE);
+                out.writeBoolean(useRegexLexer);
+                out.writeInt(maxErrors);
+                out.writeUTF(mode);
+                out.writeBoolean(color);
+                out.writeBoolean(printStats);
+                out.writeUTF(Paths.get("").toAbsolutePath().toString());
+                out.writeInt(inputs.size());
+                for (int i = 0; i < inputs.size(); i++) {
+                    out.writeUTF(inputs.get(i).equals("-") ? "<stdin>" : inputs.get(i));
+                    out.writeInt(texts.get(i).length);
+                    out.write(texts.get(i));
+                }
+            }
+            out.flush();
+
+            if (in.readByte() != SMSL_Daemon.OK) {
+                System.err.println("Daemon error: " + in.readUTF());
+                System.exit(2);
+            }
+            int errors = in.readInt();
+            long compileNanos = in.readLong();
+            byte[] output = in.readNBytes(in.readInt());
+            System.out.print(new String(output, StandardCharsets.UTF_8));
+            System.out.flush();
+            if (!stop) {
+                System.err.printf("%d file(s) in %.3f ms (compile %.3f ms)%n", inputs.size(),
+                        (System.nanoTime() - start) / 1e6, compileNanos / 1e6);
+            }
+            if (errors > 0) System.exit(1);
+        }
+    }
+}
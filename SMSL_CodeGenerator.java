@@ -0,0 +1,424 @@
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Backend that turns optimized IR into a Java class implementing
+// SMSL_StateMachine, compiled in-process with javax.tools. fire(event) is a switch
+// on the int state and then on the int event, so the JIT can inline the actions.
+//
+// Methods are limited to 64 KiB of bytecode, so states are dispatched in chunks
+// of 64 by ID, and a state with many transitions gets a method of its own. A
+// switch too large for one method (over chunks, a large state's events or the
+// top-level events) is split into sub-methods by key range, and a transition
+// with too many actions runs them from methods of its own.
+public class SMSL_CodeGenerator {
+    private static final int CHUNK_BITS = 6;
+    private static final int LARGE_STATE = 32; // Statements before a state gets its own method
+    private static final int METHOD_STATEMENTS = 1024; // Per method; at most about 16 bytes of bytecode each
+    private static final int SPLIT = 16; // Ranges a switch too large for one method is split into
+    private static final int STATE_CHANGE = -2; // Marks the state change among a transition's actions
+
+    private final SMSL_IR code;
+    private final SMSL_SymbolTable symbols;
+    private final StringBuilder out = new StringBuilder();
+
+    // Per state, in compressed sparse rows: its state actions and its transitions
+    private final int[] actionOffsets;
+    private final int[] actions;
+    private final int[] transitionOffsets;
+    private final int[] transitions; // Instruction indexes
+    private final List<Integer> topLevel = new ArrayList<>();
+    private final List<Integer> largeTransitions = new ArrayList<>(); // Get a method of their own
+
+    private SMSL_CodeGenerator(SMSL_IR code) {
+        this.code = code;
+        this.symbols = code.symbols();
+        int states = symbols.size(SMSL_SymbolTable.STATE);
+        actionOffsets = new int[states + 1];
+        transitionOffsets = new int[states + 1];
+        for (int i = 0; i < code.size(); i++) {
+            int source = code.source(i);
+            if (source == SMSL_IR.NONE) continue;
+            if (code.opcode(i) == SMSL_IR.Opcode.TRANSITION) {
+                transitionOffsets[source + 1]++;
+            } else if (code.arg2(i) == SMSL_IR.NONE) {
+                actionOffsets[source + 1]++;
+            }
+        }
+        for (int s = 0; s < states; s++) {
+            actionOffsets[s + 1] += actionOffsets[s];
+            transitionOffsets[s + 1] += transitionOffsets[s];
+        }
+        actions = new int[actionOffsets[states]];
+        transitions = new int[transitionOffsets[states]];
+        int[] actionFill = Arrays.copyOf(actionOffsets, states);
+        int[] transitionFill = Arrays.copyOf(transitionOffsets, states);
+        for (int i = 0; i < code.size(); i++) {
+            int source = code.source(i);
+            if (code.opcode(i) == SMSL_IR.Opcode.TRANSITION) {
+                if (source == SMSL_IR.NONE) {
+                    topLevel.add(i);
+                } else {
+                    transitions[transitionFill[source]++] = i;
+                }
+            } else if (source != SMSL_IR.NONE && code.arg2(i) == SMSL_IR.NONE) {
+                actions[actionFill[source]++] = code.arg1(i);
+            }
+        }
+    }
+
+    public static String generateSource(SMSL_IR code, String className) {
+        return new SMSL_CodeGenerator(code).generate(className);
+    }
+
+    // Compiles the generated class in memory and loads it
+    public static Class<? extends SMSL_StateMachine> compile(SMSL_IR code, String className) throws IOException {
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        JavaCompiler compiler = systemCompiler();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        try (JavaFileManager memory = new ForwardingJavaFileManager<JavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                                                       FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return classes.computeIfAbsent(name, n -> new ByteArrayOutputStream());
+                    }
+                };
+            }
+        }) {
+            JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"),
+                    JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return generateSource(code, className);
+                }
+            };
+            run(compiler, memory, className, source, List.of());
+        }
+
+        ClassLoader loader = new ClassLoader(SMSL_StateMachine.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                ByteArrayOutputStream bytes = classes.get(name);
+                if (bytes == null) throw new ClassNotFoundException(name);
+                return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            }
+        };
+        try {
+            return loader.loadClass(className).asSubclass(SMSL_StateMachine.class);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Generated class " + className + " was not produced", e);
+        }
+    }
+
+    // Writes <className>.java to the directory and compiles it to a class file next to it
+    public static Path emit(SMSL_IR code, String className, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path source = directory.resolve(className + ".java");
+        Files.writeString(source, generateSource(code, className), StandardCharsets.UTF_8);
+        JavaCompiler compiler = systemCompiler();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            run(compiler, files, className, files.getJavaFileObjects(source).iterator().next(),
+                    List.of("-d", directory.toString()));
+        }
+        return source;
+    }
+
+    public static SMSL_StateMachine newMachine(Class<? extends SMSL_StateMachine> type,
+                                               SMSL_StateMachine.Actions actions) {
+        try {
+            return type.getConstructor(SMSL_StateMachine.Actions.class).newInstance(actions);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot instantiate " + type.getName(), e);
+        }
+    }
+
+    // A class name derived from a spec file name, e.g. "door-lock.smsl" -> "Door_lockMachine"
+    public static String className(String sourceName) {
+        String base = sourceName.substring(Math.max(sourceName.lastIndexOf('/'), sourceName.lastIndexOf('\\')) + 1);
+        int dot = base.indexOf('.');
+        if (dot > 0) base = base.substring(0, dot);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < base.length(); i++) {
+            char c = base.charAt(i);
+            name.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        if (name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0))) name.insert(0, '_');
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        return name + "Machine";
+    }
+
+    private static JavaCompiler systemCompiler() throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) throw new IOException("No Java compiler available; run on a JDK, not a JRE");
+        return compiler;
+    }
+
+    private static void run(JavaCompiler compiler, JavaFileManager files, String className, JavaFileObject unit,
+                            List<String> extraOptions) throws IOException {
+        List<String> options = new ArrayList<>(List.of("-classpath", System.getProperty("java.class.path"), "-nowarn"));
+        options.addAll(extraOptions);
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        boolean ok = compiler.getTask(null, files, diagnostics, options, null, List.of(unit)).call();
+        if (!ok) {
+            StringBuilder message = new StringBuilder("Compiling " + className + " failed:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                message.append('\n').append(diagnostic.getMessage(null));
+            }
+            throw new IOException(message.toString());
+        }
+    }
+
+    private String generate(String className) {
+        int states = symbols.size(SMSL_SymbolTable.STATE);
+        int start = code.startState();
+
+        line(0, "// Generated by SMSL_Compiler " + SMSL_Compiler.VERSION + " - do not edit");
+        line(0, "public final class " + className + " implements SMSL_StateMachine {");
+        line(1, "public static final int START_STATE = " + start + ";");
+        line(0, "");
+        line(1, "private final SMSL_StateMachine.Actions actions;");
+        line(1, "private int state = START_STATE;");
+        line(0, "");
+        line(1, "public " + className + "(SMSL_StateMachine.Actions actions) {");
+        line(2, "this.actions = actions;");
+        line(1, "}");
+        line(0, "");
+        line(1, "public int state() {");
+        line(2, "return state;");
+        line(1, "}");
+        line(0, "");
+        line(1, "public void reset() {");
+        line(2, "state = START_STATE;");
+        line(1, "}");
+        line(0, "");
+
+        // Chunks with at least one state that has transitions
+        List<Case> chunkCases = new ArrayList<>();
+        for (int c = 0; c <= states >>> CHUNK_BITS; c++) {
+            for (int s = c << CHUNK_BITS; s < Math.min(states, (c + 1) << CHUNK_BITS); s++) {
+                if (transitionOffsets[s + 1] == transitionOffsets[s]) continue;
+                int chunk = c;
+                chunkCases.add(new Case(c, 1, indent -> line(indent, "case " + chunk + ": return fire" + chunk + "(event);")));
+                break;
+            }
+        }
+
+        line(1, "public boolean fire(int event) {");
+        line(2, "return fireState(event) || fireTopLevel(event);");
+        line(1, "}");
+        switchMethod("fireState", "state >>> " + CHUNK_BITS, chunkCases);
+
+        List<Integer> largeStates = new ArrayList<>();
+        for (Case chunk : chunkCases) {
+            int c = chunk.key;
+            line(0, "");
+            line(1, "private boolean fire" + c + "(int event) {");
+            line(2, "switch (state) {");
+            for (int s = c << CHUNK_BITS; s < Math.min(states, (c + 1) << CHUNK_BITS); s++) {
+                if (transitionOffsets[s + 1] == transitionOffsets[s]) continue;
+                line(3, "case " + s + ": // " + symbols.name(SMSL_SymbolTable.STATE, s));
+                List<Case> cases = stateCases(s);
+                if (statements(cases) > LARGE_STATE) {
+                    line(4, "return state" + s + "(event);");
+                    largeStates.add(s);
+                } else {
+                    line(4, "switch (event) {");
+                    for (Case c2 : cases) c2.body.write(5);
+                    line(4, "}");
+                    line(4, "return false;");
+                }
+            }
+            line(2, "}");
+            line(2, "return false;");
+            line(1, "}");
+        }
+
+        for (int s : largeStates) {
+            switchMethod("state" + s, "event", stateCases(s));
+        }
+
+        // Top-level transitions fire from any state without its own transition for the event
+        switchMethod("fireTopLevel", "event", cases(topLevel));
+
+        for (int i = 0; i < largeTransitions.size(); i++) {
+            transitionMethod(largeTransitions.get(i));
+        }
+        line(0, "}");
+        return out.toString();
+    }
+
+    // One case of a generated switch, with the statements its body takes
+    private interface Body {
+        void write(int indent);
+    }
+
+    private static final class Case {
+        final int key;
+        final int statements;
+        final Body body;
+
+        Case(int key, int statements, Body body) {
+            this.key = key;
+            this.statements = statements;
+            this.body = body;
+        }
+    }
+
+    // A method switching on the variable over cases sorted by key. If the cases
+    // take more than METHOD_STATEMENTS statements, it compares the variable with
+    // the first key of each range instead and calls a sub-method per range, split
+    // again as needed, so no method comes near the 64 KiB bytecode limit.
+    private void switchMethod(String name, String variable, List<Case> cases) {
+        line(0, "");
+        line(1, "private boolean " + name + "(int event) {");
+        if (cases.size() <= 1 || statements(cases) <= METHOD_STATEMENTS) {
+            line(2, "switch (" + variable + ") {");
+            for (Case c : cases) c.body.write(3);
+            line(2, "}");
+            line(2, "return false;");
+            line(1, "}");
+            return;
+        }
+
+        // Consecutive ranges of about equal size
+        int target = Math.max(METHOD_STATEMENTS / 2, (statements(cases) + SPLIT - 1) / SPLIT);
+        List<List<Case>> ranges = new ArrayList<>();
+        List<Case> range = new ArrayList<>();
+        int size = 0;
+        for (Case c : cases) {
+            if (!range.isEmpty() && size + c.statements > target) {
+                ranges.add(range);
+                range = new ArrayList<>();
+                size = 0;
+            }
+            range.add(c);
+            size += c.statements;
+        }
+        ranges.add(range);
+        String operand = variable.indexOf(' ') >= 0 ? "(" + variable + ")" : variable;
+        for (int r = 0; r < ranges.size() - 1; r++) {
+            line(2, "if (" + operand + " < " + ranges.get(r + 1).get(0).key + ") return " + name + "_" + r + "(event);");
+        }
+        line(2, "return " + name + "_" + (ranges.size() - 1) + "(event);");
+        line(1, "}");
+        for (int r = 0; r < ranges.size(); r++) {
+            switchMethod(name + "_" + r, variable, ranges.get(r));
+        }
+    }
+
+    private List<Case> stateCases(int state) {
+        List<Integer> instructions = new ArrayList<>();
+        for (int k = transitionOffsets[state]; k < transitionOffsets[state + 1]; k++) {
+            instructions.add(transitions[k]);
+        }
+        return cases(instructions);
+    }
+
+    // Cases for the transitions that can fire, sorted by event; an event's first
+    // transition shadows the later ones
+    private List<Case> cases(List<Integer> instructions) {
+        List<Case> cases = new ArrayList<>();
+        Set<Integer> events = new HashSet<>();
+        for (int i : instructions) {
+            int event = code.arg2(i);
+            if (event == SMSL_IR.NONE || !events.add(event)) continue;
+            cases.add(transitionCase(i));
+        }
+        cases.sort((a, b) -> Integer.compare(a.key, b.key));
+        return cases;
+    }
+
+    // Transition actions, the state change, then the target's state actions; in a
+    // method of its own if they don't fit in one
+    private Case transitionCase(int i) {
+        int event = code.arg2(i);
+        String label = "case " + event + ": // " + symbols.name(SMSL_SymbolTable.TRANSITION, code.arg1(i))
+                + " on " + symbols.name(SMSL_SymbolTable.EVENT, event);
+        List<Integer> actions = transitionActions(i);
+        if (actions.size() + 2 > METHOD_STATEMENTS) {
+            largeTransitions.add(i);
+            return new Case(event, 2, indent -> {
+                line(indent, label);
+                line(indent + 1, "return transition" + i + "();");
+            });
+        }
+        return new Case(event, actions.size() + 2, indent -> {
+            line(indent, label);
+            for (int action : actions) step(i, action, indent + 1);
+            line(indent + 1, "return true;");
+        });
+    }
+
+    // A transition too large for a switch case, with its actions in parts of
+    // METHOD_STATEMENTS each
+    private void transitionMethod(int i) {
+        List<Integer> actions = transitionActions(i);
+        int parts = (actions.size() + METHOD_STATEMENTS - 1) / METHOD_STATEMENTS;
+        line(0, "");
+        line(1, "private boolean transition" + i + "() {");
+        for (int p = 0; p < parts; p++) line(2, "transition" + i + "_" + p + "();");
+        line(2, "return true;");
+        line(1, "}");
+        for (int p = 0; p < parts; p++) {
+            line(0, "");
+            line(1, "private void transition" + i + "_" + p + "() {");
+            for (int a = p * METHOD_STATEMENTS; a < Math.min(actions.size(), (p + 1) * METHOD_STATEMENTS); a++) {
+                step(i, actions.get(a), 2);
+            }
+            line(1, "}");
+        }
+    }
+
+    // The transition's actions, STATE_CHANGE, then the target's state actions
+    private List<Integer> transitionActions(int i) {
+        List<Integer> actions = new ArrayList<>();
+        for (int k = i + 1; k < code.size() && code.opcode(k) == SMSL_IR.Opcode.ACTION && code.arg2(k) != SMSL_IR.NONE; k++) {
+            actions.add(code.arg1(k));
+        }
+        actions.add(STATE_CHANGE);
+        int target = code.result(i);
+        for (int k = actionOffsets[target]; k < actionOffsets[target + 1]; k++) {
+            actions.add(this.actions[k]);
+        }
+        return actions;
+    }
+
+    private void step(int i, int action, int indent) {
+        if (action == STATE_CHANGE) {
+            int target = code.result(i);
+            line(indent, "state = " + target + "; // " + symbols.name(SMSL_SymbolTable.STATE, target));
+        } else {
+            action(action, indent);
+        }
+    }
+
+    private void action(int action, int indent) {
+        line(indent, "actions.onAction(" + action + "); // " + symbols.name(SMSL_SymbolTable.ACTION, action));
+    }
+
+    private static int statements(List<Case> cases) {
+        int count = 0;
+        for (Case c : cases) count += c.statements;
+        return count;
+    }
+
+    private void line(int indent, String text) {
+        for (int i = 0; i < indent; i++) out.append("    ");
+        out.append(text).append('\n');
+    }
+}
@@ -0,0 +1,57 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Everything one compile() call produced: tokens, syntax tree, diagnostics, intermediate code and its lowering.
+public class SMSL_CompilationResult {
+    public final String sourceName;
+    public final SMSL_TokenBuffer tokens;
+    public final SMSL_Ast.Program program; // null if loaded from the cache
+    public final SMSL_StateGraph graph; // null if semantic analysis didn't run, or loaded from the cache
+    public final List<SMSL_Diagnostic> diagnostics; // Phase by phase, each phase sorted by position
+    public final List<String> lexicalErrors;
+    public final List<String> syntaxErrors;
+    public final List<String> semanticErrors;
+    public final SMSL_IR intermediateCode;
+    public final SMSL_IR optimizedCode;
+    public final List<SMSL_Optimizer.PassResult> optimizationPasses; // Empty if the optimizer didn't run
+    public final SMSL_TableLayout layout; // Of the optimized code; null if a phase stopped the compilation
+    public final SMSL_CompileStats stats; // Per-phase metrics; no phases if loaded from the cache
+
+    public SMSL_CompilationResult(String sourceName, SMSL_TokenBuffer tokens, SMSL_Ast.Program program,
+                                  SMSL_StateGraph graph, List<SMSL_Diagnostic> diagnostics,
+                                  SMSL_IR intermediateCode, SMSL_IR optimizedCode,
+                                  List<SMSL_Optimizer.PassResult> optimizationPasses, SMSL_TableLayout layout,
+                                  SMSL_CompileStats stats) {
+        this.sourceName = sourceName;
+        this.tokens = tokens;
+        this.program = program;
+        this.graph = graph;
+        // Batch, watch and single-file compiles must agree on the order; checked with -ea
+        assert SMSL_Diagnostic.sorted(diagnostics) : "Diagnostics of " + sourceName + " out of order";
+        this.diagnostics = Collections.unmodifiableList(new ArrayList<>(diagnostics));
+        this.lexicalErrors = Collections.unmodifiableList(
+                SMSL_Diagnostic.messages(diagnostics, SMSL_Diagnostic.Phase.LEXICAL));
+        this.syntaxErrors = Collections.unmodifiableList(
+                SMSL_Diagnostic.messages(diagnostics, SMSL_Diagnostic.Phase.SYNTAX));
+        this.semanticErrors = Collections.unmodifiableList(
+                SMSL_Diagnostic.messages(diagnostics, SMSL_Diagnostic.Phase.SEMANTIC));
+        this.intermediateCode = intermediateCode;
+        this.optimizedCode = optimizedCode;
+        this.optimizationPasses = Collections.unmodifiableList(optimizationPasses);
+        this.layout = layout;
+        this.stats = stats;
+    }
+
+    public boolean hasErrors() {
+        return !lexicalErrors.isEmpty() || !syntaxErrors.isEmpty() || !semanticErrors.isEmpty();
+    }
+
+    // All error messages in phase order
+    public List<String> errors() {
+        List<String> errors = new ArrayList<>(lexicalErrors);
+        errors.addAll(syntaxErrors);
+        errors.addAll(semanticErrors);
+        return errors;
+    }
+}
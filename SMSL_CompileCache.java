@@ -0,0 +1,283 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+// On-disk cache of compile results, keyed by a SHA-256 of the compiler version,
+// the lexer and the source text. An entry holds the diagnostics and the optimized
+// code as an SMSL_IR image, so a hit skips every phase. Modules of a project
+// (SMSL_Project) get entries of their own, with their unoptimized code and the
+// names the linker and the state graph need, under keys that never match a
+// whole compile's. Entries are written to a temp file and moved into place, and
+// the least recently used ones are evicted once the directory grows past its
+// size bound.
+public class SMSL_CompileCache {
+    public static final String DEFAULT_DIRECTORY = ".smsl-cache";
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private static final int MAGIC = 0x534D534C; // "SMSL"
+    private static final int FORMAT_VERSION = 5;
+    private static final String SUFFIX = ".smslc";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    public SMSL_CompileCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // maxErrors is the compiler's error limit, which changes the diagnostics
+    public String key(SMSL_Source source, boolean useRegexLexer, int maxErrors) {
+        return digest(SMSL_Compiler.VERSION + '\0' + (useRegexLexer ? "regex" : "dfa") + '\0' + maxErrors + '\0', source);
+    }
+
+    // Key of a module compiled on its own, which doesn't depend on the error limit
+    public String moduleKey(SMSL_Source source, boolean useRegexLexer) {
+        return digest(SMSL_Compiler.VERSION + '\0' + (useRegexLexer ? "regex" : "dfa") + "\0module\0", source);
+    }
+
+    private static String digest(String prefix, SMSL_Source source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JRE ships SHA-256
+        }
+        digest.update(prefix.getBytes(StandardCharsets.UTF_8));
+
+        // Hash the UTF-16 code units in chunks, without encoding the whole source
+        byte[] chunk = new byte[8192];
+        for (int i = 0; i < source.length; ) {
+            int n = 0;
+            for (; n < chunk.length && i < source.length; i++) {
+                chunk[n++] = (byte) (source.chars[i] >>> 8);
+                chunk[n++] = (byte) source.chars[i];
+            }
+            digest.update(chunk, 0, n);
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // Returns the cached result, or null on a miss. Unreadable entries are dropped.
+    // The entry is memory-mapped and its code is read in place.
+    public SMSL_CompilationResult load(String key, String sourceName) {
+        Path entry = directory.resolve(key + SUFFIX);
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a cache entry: " + entry);
+            }
+            List<SMSL_Diagnostic> diagnostics = readDiagnostics(buffer);
+            SMSL_IR optimizedCode = SMSL_IR.read(buffer);
+
+            touch(entry);
+
+            // The layout is lowered again, which takes a pass over the code
+            boolean failed = false;
+            for (SMSL_Diagnostic diagnostic : diagnostics) {
+                failed |= diagnostic.severity == SMSL_Diagnostic.Severity.ERROR;
+            }
+            return new SMSL_CompilationResult(sourceName, null, null, null, diagnostics,
+                    SMSL_IR.empty(optimizedCode.symbols()), optimizedCode, Collections.emptyList(),
+                    failed ? null : SMSL_TableLayout.lower(optimizedCode), SMSL_CompileStats.empty(sourceName));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            delete(entry);
+            return null;
+        }
+    }
+
+    public void store(String key, SMSL_CompilationResult result) throws IOException {
+        write(key, out -> {
+            writeDiagnostics(out, result.diagnostics);
+            result.optimizedCode.write(out);
+        });
+    }
+
+    // Returns the cached module, or null on a miss, like load()
+    public SMSL_Project.Module loadModule(String key, String name) {
+        Path entry = directory.resolve(key + SUFFIX);
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a cache entry: " + entry);
+            }
+            List<SMSL_Diagnostic> diagnostics = readDiagnostics(buffer);
+            List<SMSL_Project.Name> imports = readNames(buffer);
+            List<SMSL_Project.Name> states = readNames(buffer);
+            List<SMSL_Project.Name> references = readNames(buffer);
+            List<SMSL_Project.Name> transitions = readNames(buffer);
+            SMSL_IR code = SMSL_IR.read(buffer);
+
+            touch(entry);
+            return new SMSL_Project.Module(name, imports, states, references, transitions, diagnostics, code,
+                    true);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            delete(entry);
+            return null;
+        }
+    }
+
+    public void storeModule(String key, SMSL_Project.Module module) throws IOException {
+        write(key, out -> {
+            writeDiagnostics(out, module.diagnostics);
+            writeNames(out, module.imports);
+            writeNames(out, module.states);
+            writeNames(out, module.references);
+            writeNames(out, module.transitions);
+            module.code.write(out);
+        });
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void write(String key, Body body) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                body.write(out);
+            }
+            Path entry = directory.resolve(key + SUFFIX);
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        evict();
+    }
+
+    // Deletes least recently used entries until the cache fits in maxBytes
+    public void evict() throws IOException {
+        List<Path> entries = entries();
+        long[] sizes = new long[entries.size()];
+        long[] used = new long[entries.size()];
+        Integer[] order = new Integer[entries.size()];
+        long total = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                sizes[i] = Files.size(entries.get(i));
+                used[i] = Files.getLastModifiedTime(entries.get(i)).toMillis();
+            } catch (NoSuchFileException e) {
+                // Evicted concurrently by another compiler
+            }
+            total += sizes[i];
+            order[i] = i;
+        }
+        if (total <= maxBytes) return;
+
+        Arrays.sort(order, (a, b) -> Long.compare(used[a], used[b]));
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            delete(entries.get(order[i]));
+            total -= sizes[order[i]];
+        }
+    }
+
+    public void clear() throws IOException {
+        for (Path entry : entries()) {
+            delete(entry);
+        }
+    }
+
+    private List<Path> entries() throws IOException {
+        if (!Files.isDirectory(directory)) return Collections.emptyList();
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).forEach(entries::add);
+        }
+        return entries;
+    }
+
+    // Marks an entry as recently used for eviction
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // A read-only cache still serves hits
+        }
+    }
+
+    private static void delete(Path entry) {
+        try {
+            Files.deleteIfExists(entry);
+        } catch (IOException e) {
+            // Left for the next eviction
+        }
+    }
+
+    private static void writeDiagnostics(DataOutputStream out, List<SMSL_Diagnostic> diagnostics) throws IOException {
+        out.writeInt(diagnostics.size());
+        for (SMSL_Diagnostic diagnostic : diagnostics) {
+            out.writeByte(diagnostic.phase.ordinal());
+            out.writeByte(diagnostic.severity.ordinal());
+            out.writeInt(diagnostic.line);
+            out.writeInt(diagnostic.column);
+            SMSL_IR.writeString(out, diagnostic.code);
+            SMSL_IR.writeString(out, diagnostic.message);
+            SMSL_IR.writeString(out, diagnostic.source == null ? "" : diagnostic.source);
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, List<SMSL_Project.Name> names) throws IOException {
+        out.writeInt(names.size());
+        for (SMSL_Project.Name name : names) {
+            SMSL_IR.writeString(out, name.text);
+            out.writeInt(name.line);
+            out.writeInt(name.column);
+        }
+    }
+
+    private static List<SMSL_Project.Name> readNames(ByteBuffer buffer) throws IOException {
+        int count = SMSL_IR.readCount(buffer, 12);
+        List<SMSL_Project.Name> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String text = SMSL_IR.readString(buffer);
+            names.add(new SMSL_Project.Name(text, buffer.getInt(), buffer.getInt()));
+        }
+        return names;
+    }
+
+    // An out-of-range phase or severity throws IndexOutOfBoundsException
+    private static List<SMSL_Diagnostic> readDiagnostics(ByteBuffer buffer) throws IOException {
+        int count = SMSL_IR.readCount(buffer, 22);
+        List<SMSL_Diagnostic> diagnostics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SMSL_Diagnostic.Phase phase = SMSL_Diagnostic.Phase.values()[buffer.get()];
+            SMSL_Diagnostic.Severity severity = SMSL_Diagnostic.Severity.values()[buffer.get()];
+            int line = buffer.getInt();
+            int column = buffer.getInt();
+            String code = SMSL_IR.readString(buffer);
+            String message = SMSL_IR.readString(buffer);
+            String source = SMSL_IR.readString(buffer);
+            diagnostics.add(new SMSL_Diagnostic(phase, severity, code, line, column, message,
+                    source.isEmpty() ? null : source));
+        }
+        return diagnostics;
+    }
+}
@@ -0,0 +1,183 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Per-phase metrics of one compilation: wall time, bytes allocated by the
+// compiling thread (from ThreadMXBean) and the size of what the phase produced.
+// Every measured phase is also committed as an smsl.Phase JFR event, so a
+// recording (-XX:StartFlightRecording) shows the phases next to GC and JIT
+// activity. A phase can be measured several times; its segments add up.
+public class SMSL_CompileStats {
+    public enum Phase {
+        LEXING("lexing", "tokens"),
+        SYNTAX("syntax", "AST nodes"),
+        MODULES("modules", "modules"),
+        SEMANTIC("semantic", "diagnostics"),
+        INTERMEDIATE_CODE("intermediate-code", "instructions"),
+        OPTIMIZATION("optimization", "instructions"),
+        LOWERING("lowering", "bytes"),
+        OUTPUT("output", "chars");
+
+        public final String label;
+        public final String outputUnit;
+
+        Phase(String label, String outputUnit) {
+            this.label = label;
+            this.outputUnit = outputUnit;
+        }
+    }
+
+    public static final class PhaseResult {
+        public final Phase phase;
+        public final long nanos;
+        public final long allocatedBytes; // -1 if the JVM can't measure it
+        public final long outputSize; // In phase.outputUnit
+
+        PhaseResult(Phase phase, long nanos, long allocatedBytes, long outputSize) {
+            this.phase = phase;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.outputSize = outputSize;
+        }
+
+        // Input processed per second; 0 if the phase took no measurable time
+        public double perSecond(long count) {
+            return nanos == 0 ? 0 : count * 1e9 / nanos;
+        }
+    }
+
+    @Name("smsl.Phase")
+    @Label("SMSL Compiler Phase")
+    @Category("SMSL")
+    @Description("One phase of compiling a spec")
+    public static final class PhaseEvent extends Event {
+        @Label("Source")
+        public String source;
+
+        @Label("Phase")
+        public String phase;
+
+        @Label("Allocated")
+        @DataAmount
+        public long allocatedBytes;
+
+        @Label("Output Size")
+        public long outputSize;
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    public final String sourceName;
+    private final long[] nanos = new long[Phase.values().length];
+    private final long[] allocated = new long[Phase.values().length];
+    private final long[] outputSize = new long[Phase.values().length];
+    private final boolean[] measured = new boolean[Phase.values().length];
+    private int tokens;
+    private int lines;
+
+    // Phase in progress
+    private Phase current;
+    private long startNanos;
+    private long startAllocated;
+    private PhaseEvent event;
+
+    public SMSL_CompileStats(String sourceName) {
+        this.sourceName = sourceName;
+    }
+
+    // Stats of a result that wasn't compiled here, e.g. loaded from the cache
+    public static SMSL_CompileStats empty(String sourceName) {
+        return new SMSL_CompileStats(sourceName);
+    }
+
+    public void begin(Phase phase) {
+        if (current != null) throw new IllegalStateException("Phase " + current.label + " still running");
+        current = phase;
+        event = new PhaseEvent();
+        event.begin();
+        startAllocated = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    public void end(Phase phase, long size) {
+        long elapsed = System.nanoTime() - startNanos;
+        long allocation = allocatedBytes() - startAllocated;
+        if (current != phase) throw new IllegalStateException("Phase " + phase.label + " not running");
+        current = null;
+
+        int i = phase.ordinal();
+        nanos[i] += elapsed;
+        allocated[i] += allocation;
+        outputSize[i] += size;
+        measured[i] = true;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = sourceName;
+            event.phase = phase.label;
+            event.allocatedBytes = allocation;
+            event.outputSize = size;
+            event.commit();
+        }
+        event = null;
+    }
+
+    // Size of the input, for per-second rates
+    public void input(int tokens, int lines) {
+        this.tokens = tokens;
+        this.lines = lines;
+    }
+
+    public int tokens() {
+        return tokens;
+    }
+
+    public int lines() {
+        return lines;
+    }
+
+    // Measured phases in pipeline order
+    public List<PhaseResult> phases() {
+        List<PhaseResult> phases = new ArrayList<>();
+        for (Phase phase : Phase.values()) {
+            int i = phase.ordinal();
+            if (measured[i]) {
+                phases.add(new PhaseResult(phase, nanos[i], THREADS != null ? allocated[i] : -1, outputSize[i]));
+            }
+        }
+        return Collections.unmodifiableList(phases);
+    }
+
+    public long totalNanos() {
+        long total = 0;
+        for (long phase : nanos) total += phase;
+        return total;
+    }
+
+    public long totalAllocatedBytes() {
+        if (THREADS == null) return -1;
+        long total = 0;
+        for (long phase : allocated) total += phase;
+        return total;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) return null;
+        if (!threads.isThreadAllocatedMemoryEnabled()) threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
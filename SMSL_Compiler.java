@@ -1,8 +1,13 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 import java.util.regex.*;
 
 public class SMSL_Compiler {
+    // Part of the compile cache key; bump it whenever compiler output changes
+    public static final String VERSION = "1.14";
+
     public static final String RESET = "\u001B[0m";
     public static final String CYAN = "\u001B[36m";
     public static final String MAGENTA = "\u001B[35m";
@@ -12,11 +17,27 @@ public class SMSL_Compiler {
 
     private static final Map<String, String> TOKEN_TYPES = new LinkedHashMap<>();
     private static final Map<String, Integer> TOKEN_INDEX = new LinkedHashMap<>();
-
-    public static List<String> lexicalErrors = new ArrayList<>();
-    public static List<String> syntaxErrors = new ArrayList<>();
-    public static List<String> semanticErrors = new ArrayList<>();
-    public static List<String[]> tokens = new ArrayList<>(); // To store tokens
+    private static final String[] TOKEN_NAMES;
+    private static final Pattern LEXEME_PATTERN =
+            Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*|\\d+|\"[^\"]*\"|'[^']*'|[{}();,:]|->");
+
+    // Selects the lexer: the hand-written scanner by default, the regex one with --lexer=regex
+    private final boolean useRegexLexer;
+    private final SMSL_Reporter reporter; // Receives every phase's output; null when not verbose
+    private final boolean verbose;
+    private final int maxErrors; // Errors reported before the compilation gives up; 0 for no limit
+    private final SMSL_ParallelFrontEnd frontEnd; // null to run the front end on the calling thread only
+    private final SMSL_CompileCache moduleCache; // For the modules a spec imports; null to compile them every time
+    private final java.nio.file.Path workingDirectory; // Source names and imports are resolved against it
+
+    // State of the compilation in progress, reset by every compile() call
+    private SMSL_Diagnostic.Collector diagnostics = new SMSL_Diagnostic.Collector();
+    private SMSL_TokenBuffer tokens = new SMSL_TokenBuffer(new char[0]); // To store tokens
+    private SMSL_StateGraph graph; // Of the last program analyzed; null until semantic analysis builds it
+    private SMSL_Project project; // Modules the program imports; null if it imports none
+    private boolean module; // Compiling a module of a project; see compileModule()
+    private SMSL_CompileStats stats = SMSL_CompileStats.empty("<source>");
+    private long outputStart; // Reporter chars written before the compilation
 
     static {
         TOKEN_TYPES.put("STATE", "\\bstate\\b");
@@ -30,11 +51,18 @@ public class SMSL_Compiler {
         TOKEN_TYPES.put("STRING", "\"[^\"]*\"|'[^']*'");
         TOKEN_TYPES.put("SYMBOL", "[{}();,:]");
         TOKEN_TYPES.put("WHITESPACE", "\\s+");
+        TOKEN_TYPES.put("ARROW", "->");
 
         int index = 1;
         for (String key : TOKEN_TYPES.keySet()) {
             TOKEN_INDEX.put(key, index++);
         }
+
+        TOKEN_NAMES = new String[index];
+        TOKEN_NAMES[0] = "UNKNOWN";
+        for (Map.Entry<String, Integer> entry : TOKEN_INDEX.entrySet()) {
+            TOKEN_NAMES[entry.getValue()] = entry.getKey();
+        }
     }
 
     public static String getTokenType(String lexeme) {
@@ -50,491 +78,850 @@ public class SMSL_Compiler {
         return TOKEN_INDEX.getOrDefault(tokenType, 1);
     }
 
-    public static void lexicalAnalyzer(List<String> lines) {
-        try {
-            System.out.println(CYAN
-                    + " -----------------------------------------------------------------------------------------------"
-                    + RESET);
-            System.out.println(CYAN + "|   Line   |              Lexeme              |     Token      | Token Index |" + RESET);
-            System.out.println(CYAN
-                    + " -----------------------------------------------------------------------------------------------"
-                    + RESET);
-
-            int lineNo = 1;
-
-            for (String line : lines) {
-                line = line.split("//")[0].trim(); // Ignore comments
-                if (line.isEmpty()) continue; // Skip empty lines
-
-                Matcher matcher = Pattern
-                        .compile("[a-zA-Z_][a-zA-Z0-9_]*|\\d+|\"[^\"]*\"|'[^']*'|[{}();,:]")
-                        .matcher(line);
-
-                while (matcher.find()) {
-                    String lexeme = matcher.group();
-                    String tokenType = getTokenType(lexeme);
-                    int tokenIndex = getTokenIndex(tokenType);
-
-                    if (!tokenType.equals("WHITESPACE")) {
-                        if (tokenType.equals("UNKNOWN")) {
-                            String error = "Line " + lineNo + ": Lexical Error - Unknown lexeme '" + lexeme + "'";
-                            lexicalErrors.add(error);
-                            System.out.println(RED + error + RESET);
-                        } else {
-                            // Save the token in the tokens list
-                            tokens.add(new String[]{String.valueOf(lineNo), lexeme, tokenType, String.valueOf(tokenIndex)});
-                            
-                            // Print the token
-                            System.out.printf(
-                                    CYAN + "| %-8d " + MAGENTA + "| %-32s " + GREEN + "| %-14s " + YELLOW + "| %-11d |\n"
-                                            + RESET,
-                                    lineNo, lexeme, tokenType, tokenIndex);
-                        }
-                    }
-                }
-                lineNo++;
-            }
-
-            System.out.println(CYAN
-                    + " -----------------------------------------------------------------------------------------------"
-                    + RESET);
-            syntaxAnalyzer(lines);
-        } catch (Exception e) {
-            lexicalErrors.add("Error during lexical analysis!");
-        }
+    public static String tokenName(int tokenIndex) {
+        return TOKEN_NAMES[tokenIndex];
+    }
 
-        if (!lexicalErrors.isEmpty()) {
-            System.out.println(RED + "\nLexical Errors:" + RESET);
-            lexicalErrors.forEach(error -> System.out.println(RED + error + RESET));
-        }
+    public SMSL_Compiler() {
+        this(false, false);
     }
 
-    public static void syntaxAnalyzer(List<String> lines) {
-        System.out.println(CYAN + "\n------------------ Syntax Analysis ------------------" + RESET);
-        int lineNo = 1;
+    // verbose prints the pretty console output, in colour if stdout is a terminal
+    public SMSL_Compiler(boolean useRegexLexer, boolean verbose) {
+        this(useRegexLexer, verbose
+                ? SMSL_Reporter.create(SMSL_Reporter.Mode.PRETTY, System.out, SMSL_Reporter.colorByDefault())
+                : null);
+    }
 
-        for (String line : lines) {
-            line = line.split("//")[0].trim(); // Ignore comments
-            if (line.isEmpty()) {
-                lineNo++;
-                continue; // Skip blank lines
-            }
+    public SMSL_Compiler(boolean useRegexLexer, SMSL_Reporter reporter) {
+        this(useRegexLexer, reporter, 0);
+    }
 
-            // Tokenize the line for parse tree generation
-            List<String[]> lineTokens = new ArrayList<>();
-            Matcher matcher = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*|\\d+|\"[^\"]*\"|'[^']*'|[{}();,:]").matcher(line);
-            while (matcher.find()) {
-                String lexeme = matcher.group();
-                String tokenType = getTokenType(lexeme);
-                int tokenIndex = getTokenIndex(tokenType);
-                if (!tokenType.equals("WHITESPACE")) {
-                    lineTokens.add(new String[]{String.valueOf(lineNo), lexeme, tokenType, String.valueOf(tokenIndex)});
-                }
-            }
+    public SMSL_Compiler(boolean useRegexLexer, SMSL_Reporter reporter, int maxErrors) {
+        this(useRegexLexer, reporter, maxErrors, 1);
+    }
 
-            // Check if the line has valid syntax
-            if (!parseLine(line)) {
-                String error = "Line " + lineNo + ": Syntax Error [Error]";
-                syntaxErrors.add(error);
-                System.out.println(RED + error + RESET);
-            } else {
-                System.out.println(GREEN + "Line " + lineNo + ": Valid syntax [Valid]" + RESET);
-            }
+    // parallelism > 1 lexes large sources in chunks and runs the semantic checks
+    // in parallel; see SMSL_ParallelFrontEnd
+    public SMSL_Compiler(boolean useRegexLexer, SMSL_Reporter reporter, int maxErrors, int parallelism) {
+        this(useRegexLexer, reporter, maxErrors, parallelism, null);
+    }
 
-            // Display the parse tree for the line
-            processLineTokens(lineNo, lineTokens);
+    // moduleCache keeps the compiled modules of specs that import others; see SMSL_Project
+    public SMSL_Compiler(boolean useRegexLexer, SMSL_Reporter reporter, int maxErrors, int parallelism,
+                         SMSL_CompileCache moduleCache) {
+        this(useRegexLexer, reporter, maxErrors, parallelism, moduleCache, java.nio.file.Paths.get("").toAbsolutePath());
+    }
 
-            lineNo++;
+    // workingDirectory replaces the process's own for relative source names, as
+    // the daemon does with its client's
+    public SMSL_Compiler(boolean useRegexLexer, SMSL_Reporter reporter, int maxErrors, int parallelism,
+                         SMSL_CompileCache moduleCache, java.nio.file.Path workingDirectory) {
+        if (!workingDirectory.isAbsolute()) {
+            throw new IllegalArgumentException("Working directory must be absolute: " + workingDirectory);
         }
+        if (maxErrors < 0) throw new IllegalArgumentException("Error limit must not be negative: " + maxErrors);
+        this.useRegexLexer = useRegexLexer;
+        this.reporter = reporter;
+        this.verbose = reporter != null;
+        this.maxErrors = maxErrors;
+        this.frontEnd = parallelism > 1 ? new SMSL_ParallelFrontEnd(parallelism) : null;
+        this.moduleCache = moduleCache;
+        this.workingDirectory = workingDirectory;
     }
 
-    public static void syntaxAnalyzerUsingTokens() {
-        System.out.println(CYAN + "\n------------------ Syntax Analysis ------------------" + RESET);
-
-        int currentLine = 1;
-        List<String[]> currentLineTokens = new ArrayList<>();
+    // The modules the last compiled program imports; null if it imports none
+    public SMSL_Project project() {
+        return project;
+    }
 
-        for (String[] token : tokens) {
-            int tokenLine = Integer.parseInt(token[0]);
+    public SMSL_CompilationResult compile(String source) {
+        return compile(SMSL_Source.fromString("<source>", source));
+    }
 
-            // Process tokens for the previous line when the line changes
-            if (tokenLine != currentLine) {
-                processLineTokens(currentLine, currentLineTokens);
-                currentLine = tokenLine;
-                currentLineTokens.clear();
-            }
+    public SMSL_CompilationResult compile(String sourceName, String source) {
+        return compile(SMSL_Source.fromString(sourceName, source));
+    }
 
-            currentLineTokens.add(token);
+    // Runs every phase on one source text. Errors don't stop the front end: the
+    // lexer, parser and semantic checks all run, so one compile reports every
+    // independent error (up to maxErrors); code is generated only if there are
+    // none. An instance can be reused, and concurrent calls on the same instance
+    // are serialized.
+    public synchronized SMSL_CompilationResult compile(SMSL_Source source) {
+        String sourceName = source.name;
+        diagnostics = new SMSL_Diagnostic.Collector(maxErrors);
+        graph = null;
+        stats = new SMSL_CompileStats(sourceName);
+        if (verbose) {
+            reporter.begin(sourceName);
+            outputStart = reporter.charsWritten();
         }
 
-        // Process the last line's tokens
-        if (!currentLineTokens.isEmpty()) {
-            processLineTokens(currentLine, currentLineTokens);
+        try {
+            // Perform lexical analysis
+            stats.begin(SMSL_CompileStats.Phase.LEXING);
+            lexicalAnalyzer(source);
+            stats.end(SMSL_CompileStats.Phase.LEXING, tokens.size());
+            stats.input(tokens.size(), lastLine(tokens));
+
+            // Perform syntax analysis on whatever tokens the lexer recognized
+            stats.begin(SMSL_CompileStats.Phase.SYNTAX);
+            SMSL_Ast.Program program = syntaxAnalyzer();
+            stats.end(SMSL_CompileStats.Phase.SYNTAX, countNodes(program));
+
+            return compileParsed(sourceName, program, null);
+        } finally {
+            if (verbose) reporter.flush();
         }
     }
 
-    private static void processLineTokens(int lineNo, List<String[]> lineTokens) {
-        System.out.println(CYAN + "Line " + lineNo + ":" + RESET);
+    // Compiles one module for SMSL_Project: references to states the module
+    // doesn't declare are left to the linker, imports aren't followed, and the
+    // code isn't optimized, since only the linked program is
+    public synchronized SMSL_CompilationResult compileModule(SMSL_Source source) {
+        module = true;
+        try {
+            return compile(source);
+        } finally {
+            module = false;
+        }
+    }
 
-        if (lineTokens.isEmpty()) {
-            System.out.println(RED + "  Syntax Error: Empty line" + RESET);
-            return;
+    // Runs the phases after parsing on a program assembled elsewhere (e.g. from
+    // cached blocks). intermediateCode may be null to generate it from the program.
+    public synchronized SMSL_CompilationResult compileParsed(String sourceName, SMSL_TokenBuffer tokens,
+                                                             SMSL_Ast.Program program,
+                                                             List<SMSL_Diagnostic> diagnostics,
+                                                             SMSL_IR intermediateCode) {
+        this.diagnostics = new SMSL_Diagnostic.Collector(maxErrors);
+        this.diagnostics.addAll(diagnostics);
+        this.tokens = tokens;
+        this.graph = null;
+        this.stats = new SMSL_CompileStats(sourceName);
+        stats.input(tokens.size(), lastLine(tokens));
+        if (verbose) {
+            reporter.begin(sourceName);
+            outputStart = reporter.charsWritten();
         }
+        try {
+            return compileParsed(sourceName, program, intermediateCode);
+        } finally {
+            if (verbose) reporter.flush();
+        }
+    }
 
-        // Example hierarchical output for parse tree
-        System.out.println("  Parse Tree:");
-        System.out.println("  Root");
+    private SMSL_CompilationResult compileParsed(String sourceName, SMSL_Ast.Program program,
+                                                 SMSL_IR intermediateCode) {
+        // Perform semantic analysis, on a partial program if parsing recovered from errors
+        boolean analyzed = !diagnostics.full();
+        project = null;
+        if (analyzed && !module && !program.imports.isEmpty()) {
+            // Every module's states must be known before the program's references are checked
+            stats.begin(SMSL_CompileStats.Phase.MODULES);
+            project = new SMSL_Project(useRegexLexer, frontEnd, moduleCache, workingDirectory);
+            project.load(sourceName, program);
+            diagnostics.addAll(project.diagnostics());
+            stats.end(SMSL_CompileStats.Phase.MODULES, project.modules().size());
+            if (verbose) {
+                stats.begin(SMSL_CompileStats.Phase.OUTPUT);
+                reporter.modules(project.modules(), moduleErrors());
+                stats.end(SMSL_CompileStats.Phase.OUTPUT, 0);
+            }
+        }
+        if (analyzed) {
+            stats.begin(SMSL_CompileStats.Phase.SEMANTIC);
+            semanticAnalyzer(program);
+            stats.end(SMSL_CompileStats.Phase.SEMANTIC, diagnostics.phase(SMSL_Diagnostic.Phase.SEMANTIC).size());
+        }
+        // Every caller gets each phase by position: the analyzer reports check by
+        // check, and a project's modules in the order they were loaded
+        for (SMSL_Diagnostic.Phase phase : SMSL_Diagnostic.Phase.values()) diagnostics.sort(phase);
+
+        // Stop before code generation if any phase found errors
+        List<SMSL_Diagnostic.Phase> failed = new ArrayList<>();
+        for (SMSL_Diagnostic.Phase phase : SMSL_Diagnostic.Phase.values()) {
+            if (diagnostics.hasErrors(phase)) failed.add(phase);
+        }
+        if (!failed.isEmpty()) {
+            if (verbose) {
+                stats.begin(SMSL_CompileStats.Phase.OUTPUT);
+                if (analyzed) displayErrors();
+                reporter.stopped(failed);
+                stats.end(SMSL_CompileStats.Phase.OUTPUT, 0);
+            }
+            return result(sourceName, program, null, null, null, null);
+        }
 
-        for (String[] token : lineTokens) {
-            String lexeme = token[1];
-            String tokenType = token[2];
+        // Generate intermediate code
+        stats.begin(SMSL_CompileStats.Phase.INTERMEDIATE_CODE);
+        SMSL_IR quadruples = intermediateCode != null ? intermediateCode : generateIntermediateCode(program);
+        if (project != null) quadruples = project.link(quadruples);
+        stats.end(SMSL_CompileStats.Phase.INTERMEDIATE_CODE, quadruples.size());
+        if (project != null) {
+            // Only the linked program is the whole machine
+            stats.begin(SMSL_CompileStats.Phase.SEMANTIC);
+            int before = diagnostics.phase(SMSL_Diagnostic.Phase.SEMANTIC).size();
+            graph = SMSL_StateGraph.build(project.linkedProgram(program, quadruples));
+            stateGraphWarnings(graph, quadruples.symbols());
+            diagnostics.sort(SMSL_Diagnostic.Phase.SEMANTIC);
+            stats.end(SMSL_CompileStats.Phase.SEMANTIC, diagnostics.phase(SMSL_Diagnostic.Phase.SEMANTIC).size() - before);
+        }
+        if (module) return result(sourceName, program, quadruples, null, null, null);
+        if (verbose) {
+            stats.begin(SMSL_CompileStats.Phase.OUTPUT);
+            reporter.intermediateCode(quadruples);
+            stats.end(SMSL_CompileStats.Phase.OUTPUT, 0);
+        }
 
-            // Indent based on token type for hierarchical structure
-            if (tokenType.equals("STATE") || tokenType.equals("TRANSITION") || tokenType.equals("ACTION")) {
-                System.out.println("    ├── " + tokenType + " -> " + lexeme);
-            } else if (tokenType.equals("IDENTIFIER")) {
-                System.out.println("    │   ├── Identifier -> " + lexeme);
-            } else {
-                System.out.println("    │   ├── Symbol -> " + lexeme);
-            }
+        // The IR is immutable, so the unoptimized code stays available in the result
+        stats.begin(SMSL_CompileStats.Phase.OPTIMIZATION);
+        SMSL_Optimizer optimizer = new SMSL_Optimizer();
+        SMSL_IR optimized = optimizer.optimize(quadruples);
+        stats.end(SMSL_CompileStats.Phase.OPTIMIZATION, optimized.size());
+
+        // Lower the optimized code into per-state transition layouts
+        stats.begin(SMSL_CompileStats.Phase.LOWERING);
+        SMSL_TableLayout layout = SMSL_TableLayout.lower(optimized);
+        stats.end(SMSL_CompileStats.Phase.LOWERING, layout.memoryBytes());
+        if (verbose) {
+            stats.begin(SMSL_CompileStats.Phase.OUTPUT);
+            reporter.optimizedCode(optimized);
+            reporter.optimizationPasses(optimizer.results());
+            reporter.layout(layout);
+
+            // Display errors (if any)
+            displayErrors();
+            stats.end(SMSL_CompileStats.Phase.OUTPUT, 0);
         }
+
+        return result(sourceName, program, quadruples, optimized, optimizer.results(), layout);
     }
 
-    public static boolean parseLine(String line) {
-        if (line.startsWith("state ")) {
-            return parseState(line);
-        } else if (line.startsWith("transition")) {
-            return parseTransition(line);
-        } else if (line.startsWith("action")) {
-            return parseAction(line);
-        } else if (line.equals("start;") || line.equals("end;")) {
-            return true; // Valid start or end statement
-        } else if (line.equals("{") || line.equals("}")) {
-            return true; // Valid braces
+    private SMSL_CompilationResult result(String sourceName, SMSL_Ast.Program program,
+                                          SMSL_IR intermediateCode, SMSL_IR optimizedCode,
+                                          List<SMSL_Optimizer.PassResult> optimizationPasses,
+                                          SMSL_TableLayout layout) {
+        // Everything reported so far reaches the console here; its size is the output
+        if (verbose) {
+            stats.begin(SMSL_CompileStats.Phase.OUTPUT);
+            reporter.flush();
+            stats.end(SMSL_CompileStats.Phase.OUTPUT, reporter.charsWritten() - outputStart);
         }
-        return false; // Unrecognized line
+
+        // Code is left empty when a phase stopped the compilation
+        SMSL_IR empty = SMSL_IR.empty(program != null ? program.symbols : new SMSL_SymbolTable());
+        return new SMSL_CompilationResult(sourceName, tokens, program, graph, diagnostics.diagnostics(),
+                intermediateCode != null ? intermediateCode : empty, optimizedCode != null ? optimizedCode : empty,
+                optimizationPasses != null ? optimizationPasses : Collections.emptyList(), layout, stats);
     }
 
-    public static boolean parseState(String line) {
-        // Grammar: state <identifier> {
-        String[] parts = line.split("\\s+");
-        if (parts.length == 3 && parts[0].equals("state") && parts[2].equals("{")) {
-            return true; // Valid state declaration
+    // Lexical and syntax errors of the imported modules; their semantic errors are
+    // listed with the program's
+    private List<SMSL_Diagnostic> moduleErrors() {
+        List<SMSL_Diagnostic> errors = new ArrayList<>();
+        for (SMSL_Diagnostic diagnostic : diagnostics.diagnostics()) {
+            if (diagnostic.source != null && diagnostic.phase != SMSL_Diagnostic.Phase.SEMANTIC) errors.add(diagnostic);
         }
-        return false; // Invalid state declaration
+        return errors;
     }
 
-    public static boolean parseTransition(String line) {
-        // Grammar: transition <identifier>: event <identifier> -> <identifier> {
-        String[] parts = line.split("\\s*:\\s*|\\s*->\\s*");
-        if (parts.length < 3) {
-            return false;
+    private static int lastLine(SMSL_TokenBuffer tokens) {
+        return tokens.isEmpty() ? 0 : tokens.line(tokens.size() - 1);
+    }
+
+    private static int countNodes(SMSL_Ast.Program program) {
+        int nodes = 1;
+        for (SMSL_Ast.Node item : program.items) {
+            nodes++;
+            if (item instanceof SMSL_Ast.StateDecl) {
+                for (SMSL_Ast.Node member : ((SMSL_Ast.StateDecl) item).body) {
+                    nodes++;
+                    if (member instanceof SMSL_Ast.TransitionDecl) {
+                        nodes += ((SMSL_Ast.TransitionDecl) member).actions.size();
+                    }
+                }
+            } else if (item instanceof SMSL_Ast.TransitionDecl) {
+                nodes += ((SMSL_Ast.TransitionDecl) item).actions.size();
+            }
         }
-        String[] transitionParts = parts[0].split("\\s+");
-        return transitionParts.length == 2 && transitionParts[0].equals("transition") && parts[2].endsWith("{");
+        return nodes;
     }
 
-    public static boolean parseAction(String line) {
-        // Grammar: action <identifier>;
-        String[] parts = line.split("\\s+");
-        return parts.length == 2 && parts[0].equals("action") && parts[1].endsWith(";");
+    // Tokens of the last lexicalAnalyzer() or compile() call
+    public SMSL_TokenBuffer tokens() {
+        return tokens;
     }
 
-    public static void semanticAnalyzer(List<String> lines) {
-        System.out.println(CYAN + "\n------------------ Semantic Analysis ------------------" + RESET);
-        Set<String> definedStates = new HashSet<>();
-        Set<String> referencedStates = new HashSet<>();
-        Map<String, Boolean> stateHasContent = new HashMap<>();
-        Map<String, Integer> stateLineMap = new HashMap<>(); // Track line numbers for states
+    public void lexicalAnalyzer(SMSL_Source source) {
+        try {
+            if (verbose) reporter.tokensStart();
+
+            if (useRegexLexer) {
+                tokens = new SMSL_TokenBuffer(source.chars);
+                regexLexer(source.chars, source.length);
+            } else if (frontEnd != null) {
+                // Lexed in parallel chunks, then reported in order
+                tokens = frontEnd.lex(source.chars, source.length);
+                if (verbose) {
+                    for (int i = 0; i < tokens.size(); i++) reporter.token(tokens, i);
+                }
+            } else {
+                tokens = new SMSL_TokenBuffer(source.chars);
+                scannerLexer(source.chars, source.length);
+            }
+
+            if (verbose) reporter.tokensEnd();
+        } catch (Exception e) {
+            diagnostics.add(new SMSL_Diagnostic(SMSL_Diagnostic.Phase.LEXICAL, SMSL_Diagnostic.Severity.ERROR,
+                    SMSL_Diagnostic.LEXER_FAILURE, 0, 0, "Error during lexical analysis!"));
+        }
 
-        for (int i = 0; i < lines.size(); i++) {
-            String line = lines.get(i).split("//")[0].trim(); // Ignore comments
-            if (line.isEmpty()) {
-                continue; // Skip blank lines
+        if (verbose) reporter.lexicalErrors(diagnostics.phase(SMSL_Diagnostic.Phase.LEXICAL));
+    }
+
+    private void regexLexer(char[] source, int length) {
+        int lineNo = 0;
+        int lineStart = 0; // Offset of the line in the source buffer
+
+        while (lineStart < length) {
+            lineNo++;
+            int offset = lineStart;
+            int lineEnd = offset;
+            while (lineEnd < length && source[lineEnd] != '\n' && source[lineEnd] != '\r') lineEnd++;
+            lineStart = lineEnd + 1;
+            if (lineEnd < length && source[lineEnd] == '\r' && lineStart < length && source[lineStart] == '\n') {
+                lineStart++;
             }
 
-            if (line.startsWith("state ")) {
-                String stateName = line.split("\\s+")[1];
-                if (definedStates.contains(stateName)) {
-                    semanticErrors.add("Line " + (i + 1) + ": Semantic Error - Duplicate State Declaration: '" + stateName + "'");
-                } else {
-                    definedStates.add(stateName);
-                    stateHasContent.put(stateName, false); // Initialize state content check
-                    stateLineMap.put(stateName, i + 1); // Store the line number for the state
-                }
-            } else if (line.startsWith("transition")) {
-                String[] parts = line.split("\\s*:\\s*|\\s*->\\s*");
-                if (parts.length < 3) {
-                    semanticErrors.add("Line " + (i + 1) + ": Semantic Error - Invalid Transition Format");
-                } else {
-                    String targetState = parts[2].replace("{", "").trim();
-                    referencedStates.add(targetState);
-                }
-            } else if (line.startsWith("action")) {
-                for (String state : definedStates) {
-                    if (lines.get(i - 1).trim().equals("state " + state + " {")) {
-                        stateHasContent.put(state, true); // Mark state as having content
+            String line = new String(source, offset, lineEnd - offset);
+            line = line.split("//")[0]; // Ignore comments
+            if (line.trim().isEmpty()) continue; // Skip empty lines
+
+            Matcher matcher = LEXEME_PATTERN.matcher(line);
+
+            while (matcher.find()) {
+                String lexeme = matcher.group();
+                String tokenType = getTokenType(lexeme);
+                int tokenIndex = getTokenIndex(tokenType);
+
+                if (!tokenType.equals("WHITESPACE")) {
+                    if (tokenType.equals("UNKNOWN")) {
+                        SMSL_Diagnostic error = SMSL_Diagnostic.error(SMSL_Diagnostic.Phase.LEXICAL,
+                                SMSL_Diagnostic.UNKNOWN_LEXEME, lineNo, matcher.start() + 1,
+                                "Unknown lexeme '" + lexeme + "'");
+                        if (!diagnostics.add(error)) return;
+                        if (verbose) reporter.lexicalError(error);
+                    } else {
+                        addToken(tokenIndex, lineNo, offset + matcher.start(), offset + matcher.end());
                     }
                 }
             }
         }
+    }
 
-        // Check for undefined states
-        for (String state : referencedStates) {
-            if (!definedStates.contains(state)) {
-                semanticErrors.add("Semantic Error - Undefined State Reference: '" + state + "'");
-            }
-        }
+    private void scannerLexer(char[] source, int length) {
+        SMSL_Scanner scanner = new SMSL_Scanner(source, 0, length, 1);
 
-        // Check for states with no actions or transitions
-        for (Map.Entry<String, Boolean> entry : stateHasContent.entrySet()) {
-            if (!entry.getValue()) {
-                int lineNumber = stateLineMap.get(entry.getKey()); // Retrieve the line number from stateLineMap
-                semanticErrors.add("Line " + lineNumber + ": Semantic Error - State with No Content: '" + entry.getKey() + "'");
-            }
+        int tokenIndex;
+        while ((tokenIndex = scanner.next()) != SMSL_Scanner.EOF) {
+            addToken(tokenIndex, scanner.tokenLine(), scanner.tokenStart(), scanner.tokenEnd());
         }
     }
 
-    public static void semanticAnalyzerUsingTokens() {
-        System.out.println(CYAN + "\n------------------ Semantic Analysis ------------------" + RESET);
+    private void addToken(int tokenIndex, int lineNo, int start, int end) {
+        // Save the token in the token buffer
+        tokens.add(tokenIndex, lineNo, start, end);
 
-        Set<String> definedStates = new HashSet<>();
-        Set<String> referencedStates = new HashSet<>();
-        Map<String, Boolean> stateHasContent = new HashMap<>();
-        Map<String, Integer> stateLineMap = new HashMap<>(); // Track line numbers for states
+        // Report the token
+        if (verbose) reporter.token(tokens, tokens.size() - 1);
+    }
 
-        int currentLine = 1;
-        List<String[]> currentLineTokens = new ArrayList<>();
+    public SMSL_Ast.Program syntaxAnalyzer() {
+        SMSL_Ast.Program program = new SMSL_Parser(tokens, diagnostics).parseProgram();
+        if (verbose) reporter.syntax(program, diagnostics.phase(SMSL_Diagnostic.Phase.SYNTAX));
+        return program;
+    }
 
-        for (String[] token : tokens) {
-            int tokenLine = Integer.parseInt(token[0]);
+    // Checks the program in chunks of top-level items, in parallel on the front
+    // end's pool if there is one. Each chunk first lists the states it declares,
+    // so that every chunk knows which declaration of a state comes first; the
+    // per-state checks then run independently, and the cross-references are
+    // merged in source order. The diagnostics, and their order, are the same as
+    // checking the items one by one.
+    public void semanticAnalyzer(SMSL_Ast.Program program) {
+        if (verbose) reporter.semanticAnalysisStart();
+        SMSL_SymbolTable symbols = program.symbols;
+        int stateCount = symbols.size(SMSL_SymbolTable.STATE);
+        List<SMSL_Ast.Node> items = program.items;
+        int chunkCount = frontEnd == null ? 1 : frontEnd.chunks(items.size(), SMSL_ParallelFrontEnd.MIN_CHUNK_ITEMS);
+        List<StateChecks> chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            chunks.add(new StateChecks(items, (int) ((long) items.size() * i / chunkCount),
+                    (int) ((long) items.size() * (i + 1) / chunkCount)));
+        }
 
-            // Process tokens for the previous line when the line changes
-            if (tokenLine != currentLine) {
-                processSemanticTokens(currentLine, currentLineTokens, definedStates, referencedStates, stateHasContent, stateLineMap);
-                currentLine = tokenLine;
-                currentLineTokens.clear();
+        // Item index of each state's first declaration; -1 if it has none
+        runChunks(chunks, StateChecks::collectDeclarations);
+        int[] firstDeclarations = new int[stateCount];
+        Arrays.fill(firstDeclarations, -1);
+        for (StateChecks chunk : chunks) {
+            for (int i = 0; i < chunk.declarationCount; i++) {
+                int item = chunk.declarations[i];
+                int id = ((SMSL_Ast.StateDecl) items.get(item)).id;
+                if (firstDeclarations[id] < 0) firstDeclarations[id] = item;
             }
-
-            currentLineTokens.add(token);
         }
 
-        // Process the last line's tokens
-        if (!currentLineTokens.isEmpty()) {
-            processSemanticTokens(currentLine, currentLineTokens, definedStates, referencedStates, stateHasContent, stateLineMap);
+        runChunks(chunks, chunk -> chunk.check(firstDeclarations));
+
+        // Duplicate declarations and invalid transitions, in source order
+        SMSL_Ast.TransitionDecl[] firstReferences = new SMSL_Ast.TransitionDecl[stateCount];
+        BitSet emptyStates = new BitSet(stateCount);
+        for (StateChecks chunk : chunks) {
+            for (SMSL_Diagnostic diagnostic : chunk.diagnostics) {
+                if (!diagnostics.add(diagnostic)) return;
+            }
+            for (SMSL_Ast.TransitionDecl reference : chunk.references) {
+                if (firstReferences[reference.targetId] == null) firstReferences[reference.targetId] = reference;
+            }
+            emptyStates.or(chunk.emptyStates);
         }
 
-        // Check for undefined states
-        for (String state : referencedStates) {
-            if (!definedStates.contains(state)) {
-                semanticErrors.add("Semantic Error - Undefined State Reference: '" + state + "'");
+        // Check for undefined states, reported at their first reference
+        for (int id = 0; id < stateCount; id++) {
+            SMSL_Ast.TransitionDecl reference = firstReferences[id];
+            if (reference != null && firstDeclarations[id] < 0 && !module
+                    && (project == null || !project.declares(reference.target))
+                    && !semanticError(SMSL_Diagnostic.UNDEFINED_STATE, reference.line, reference.column,
+                    "Undefined State Reference: '" + symbols.name(SMSL_SymbolTable.STATE, id) + "'")) {
+                return;
             }
         }
 
         // Check for states with no actions or transitions
-        for (Map.Entry<String, Boolean> entry : stateHasContent.entrySet()) {
-            if (!entry.getValue()) {
-                int lineNumber = stateLineMap.get(entry.getKey()); // Retrieve the line number from stateLineMap
-                semanticErrors.add("Line " + lineNumber + ": Semantic Error - State with No Content: '" + entry.getKey() + "'");
-            }
+        for (int id = emptyStates.nextSetBit(0); id >= 0; id = emptyStates.nextSetBit(id + 1)) {
+            SMSL_Ast.StateDecl state = (SMSL_Ast.StateDecl) items.get(firstDeclarations[id]);
+            if (!semanticError(SMSL_Diagnostic.EMPTY_STATE, state.line, state.column,
+                    "State with No Content: '" + state.name + "'")) return;
+        }
+
+        // Check the machine as a whole; only worth it once the program is valid,
+        // and only the linked program of a project is the whole machine
+        graph = SMSL_StateGraph.build(program);
+        if (diagnostics.errorCount() == 0 && !module && project == null) {
+            stateGraphWarnings(graph, symbols);
         }
     }
 
-    private static void processSemanticTokens(
-        int lineNo,
-        List<String[]> lineTokens,
-        Set<String> definedStates,
-        Set<String> referencedStates,
-        Map<String, Boolean> stateHasContent,
-        Map<String, Integer> stateLineMap
-    ) {
-        if (lineTokens.isEmpty()) {
-            return; // Skip empty lines
+    // Transitions that never fire, states the start state can't reach, and
+    // states no transition leaves; for a project the graph is of the linked
+    // program, and each warning names the module it is in
+    private void stateGraphWarnings(SMSL_StateGraph graph, SMSL_SymbolTable symbols) {
+        for (SMSL_StateGraph.Conflict conflict : graph.conflicts()) {
+            String event = symbols.name(SMSL_SymbolTable.EVENT, conflict.event);
+            String owner = conflict.state < 0 ? "top-level event '" + event + "'"
+                    : "event '" + event + "' in '" + symbols.name(SMSL_SymbolTable.STATE, conflict.state) + "'";
+            String firstModule = moduleOf(conflict.first);
+            String where = Objects.equals(firstModule, moduleOf(conflict.ignored)) ? ""
+                    : " of '" + (firstModule != null ? firstModule : stats.sourceName) + "'";
+            semanticWarning(conflict.ignored, SMSL_Diagnostic.NONDETERMINISTIC_TRANSITION,
+                    "Nondeterministic Transition: '" + conflict.ignored.name + "' to '" + conflict.ignored.target
+                            + "' never fires; " + owner + " already goes to '" + conflict.first.target
+                            + "' (line " + conflict.first.line + where + ")");
         }
+        BitSet unreachable = graph.unreachable();
+        for (int id = unreachable.nextSetBit(0); id >= 0; id = unreachable.nextSetBit(id + 1)) {
+            SMSL_Ast.StateDecl state = graph.declaration(id);
+            semanticWarning(state, SMSL_Diagnostic.UNREACHABLE_STATE, "Unreachable State: '" + state.name + "'");
+        }
+        BitSet deadEnds = graph.deadEnds();
+        for (int id = deadEnds.nextSetBit(0); id >= 0; id = deadEnds.nextSetBit(id + 1)) {
+            SMSL_Ast.StateDecl state = graph.declaration(id);
+            semanticWarning(state, SMSL_Diagnostic.DEAD_END_STATE,
+                    "Dead-End State: '" + state.name + "' has no transition to another state");
+        }
+    }
 
-        String firstTokenType = lineTokens.get(0)[2]; // Get the type of the first token
+    // The module a node of the linked program comes from; null for the spec's own
+    private String moduleOf(SMSL_Ast.Node node) {
+        return project == null ? null : project.moduleOf(node);
+    }
 
-        if (firstTokenType.equals("STATE")) {
-            // Handle state declaration
-            if (lineTokens.size() >= 2 && lineTokens.get(1)[2].equals("IDENTIFIER")) {
-                String stateName = lineTokens.get(1)[1]; // Get the state name
-                if (definedStates.contains(stateName)) {
-                    // Duplicate state declaration
-                    semanticErrors.add("Line " + lineNo + ": Semantic Error - Duplicate State Declaration: '" + stateName + "'");
-                } else {
-                    definedStates.add(stateName);
-                    stateHasContent.put(stateName, false); // Initialize state content check
-                    stateLineMap.put(stateName, lineNo); // Store the line number for the state
+
+    // Runs a step on every chunk, on the front end's pool if there are several
+    private void runChunks(List<StateChecks> chunks, Consumer<StateChecks> step) {
+        if (chunks.size() == 1) {
+            step.accept(chunks.get(0));
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(chunks.size());
+        for (StateChecks chunk : chunks) {
+            tasks.add(() -> {
+                step.accept(chunk);
+                return null;
+            });
+        }
+        frontEnd.invokeAll(tasks);
+    }
+
+    // The semantic checks of items [from, to) that need no other chunk's results
+    private static final class StateChecks {
+        final List<SMSL_Ast.Node> items;
+        final int from;
+        final int to;
+        int[] declarations = new int[16]; // Item indexes of the first declaration of each state in the chunk
+        int declarationCount;
+        final List<SMSL_Diagnostic> diagnostics = new ArrayList<>();
+        final List<SMSL_Ast.TransitionDecl> references = new ArrayList<>(); // First transition to each target
+        final BitSet emptyStates = new BitSet();
+
+        StateChecks(List<SMSL_Ast.Node> items, int from, int to) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+        }
+
+        void collectDeclarations() {
+            BitSet declared = new BitSet();
+            for (int i = from; i < to; i++) {
+                SMSL_Ast.Node item = items.get(i);
+                if (item instanceof SMSL_Ast.StateDecl && !declared.get(((SMSL_Ast.StateDecl) item).id)) {
+                    declared.set(((SMSL_Ast.StateDecl) item).id);
+                    if (declarationCount == declarations.length) {
+                        declarations = Arrays.copyOf(declarations, declarationCount * 2);
+                    }
+                    declarations[declarationCount++] = i;
                 }
             }
-        } else if (firstTokenType.equals("TRANSITION")) {
-            // Handle transition declaration
-            if (lineTokens.size() >= 6 && lineTokens.get(3)[2].equals("EVENT") && lineTokens.get(5)[2].equals("IDENTIFIER")) {
-                String targetState = lineTokens.get(5)[1]; // Get the target state
-                referencedStates.add(targetState);
-            } else {
-                semanticErrors.add("Line " + lineNo + ": Semantic Error - Invalid Transition Format");
-            }
-        } else if (firstTokenType.equals("ACTION")) {
-            // Handle action declaration
-            for (String state : definedStates) {
-                if (stateHasContent.containsKey(state)) {
-                    stateHasContent.put(state, true); // Mark state as having content
+        }
+
+        void check(int[] firstDeclarations) {
+            BitSet referenced = new BitSet();
+            for (int i = from; i < to; i++) {
+                SMSL_Ast.Node item = items.get(i);
+                if (item instanceof SMSL_Ast.StateDecl) {
+                    SMSL_Ast.StateDecl state = (SMSL_Ast.StateDecl) item;
+                    if (firstDeclarations[state.id] != i) {
+                        diagnostics.add(SMSL_Diagnostic.error(SMSL_Diagnostic.Phase.SEMANTIC,
+                                SMSL_Diagnostic.DUPLICATE_STATE, state.line, state.column,
+                                "Duplicate State Declaration: '" + state.name + "'"));
+                        continue;
+                    }
+                    // A body the parser skipped over isn't reported as empty as well
+                    if (state.body.isEmpty() && !state.recovered) {
+                        emptyStates.set(state.id); // Content of the enclosing state only
+                    }
+                    for (SMSL_Ast.Node member : state.body) {
+                        if (member instanceof SMSL_Ast.TransitionDecl) {
+                            checkTransition((SMSL_Ast.TransitionDecl) member, referenced);
+                        }
+                    }
+                } else if (item instanceof SMSL_Ast.TransitionDecl) {
+                    checkTransition((SMSL_Ast.TransitionDecl) item, referenced);
                 }
             }
         }
-    }
-
-    public static List<String[]> generateIntermediateCode(List<String> lines) {
-        List<String[]> quadruples = new ArrayList<>();
 
-        for (String line : lines) {
-            line = line.split("//")[0].trim(); // Ignore comments
-            if (line.isEmpty()) {
-                continue; // Skip blank lines
+        private void checkTransition(SMSL_Ast.TransitionDecl transition, BitSet referenced) {
+            if (transition.event == null) {
+                diagnostics.add(SMSL_Diagnostic.error(SMSL_Diagnostic.Phase.SEMANTIC, SMSL_Diagnostic.MISSING_EVENT,
+                        transition.line, transition.column, "Invalid Transition Format"));
             }
-            if (line.startsWith("action")) {
-                String actionName = line.split("\\s+", 2)[1].replace(";", "").trim();
-                quadruples.add(new String[]{"ACTION", actionName, "", ""});
-            } else if (line.startsWith("transition")) {
-                String[] parts = line.split("\\s*:\\s*|\\s*->\\s*");
-                if (parts.length >= 3) {
-                    String transitionName = parts[0].split("\\s+")[1].trim();
-                    String eventName = parts[1].trim();
-                    String targetState = parts[2].replace("{", "").trim();
-                    quadruples.add(new String[]{"TRANSITION", transitionName, eventName, targetState});
-                } else {
-                    System.out.println(RED + "Error: Invalid transition format in line: " + line + RESET);
-                }
+            if (!referenced.get(transition.targetId)) {
+                referenced.set(transition.targetId);
+                references.add(transition);
             }
         }
+    }
 
-        return quadruples;
+    private boolean semanticError(String code, int line, int column, String message) {
+        return diagnostics.add(SMSL_Diagnostic.error(SMSL_Diagnostic.Phase.SEMANTIC, code, line, column, message));
     }
 
-    public static void optimizeCode(List<String[]> quadruples) {
-        // Eliminate common subexpressions
-        Set<String> seenExpressions = new HashSet<>();
-        for (int i = 0; i < quadruples.size(); i++) {
-            String[] quad = quadruples.get(i);
-            String expression = String.join(",", quad);
-            if (seenExpressions.contains(expression)) {
-                quadruples.remove(i);
-                i--;
+    // At the node, in its module if it comes from one
+    private void semanticWarning(SMSL_Ast.Node node, String code, String message) {
+        SMSL_Diagnostic warning = SMSL_Diagnostic.warning(SMSL_Diagnostic.Phase.SEMANTIC, code, node.line, node.column,
+                message);
+        String module = moduleOf(node);
+        diagnostics.add(module == null ? warning : warning.inModule(module));
+    }
+
+    public static SMSL_IR generateIntermediateCode(SMSL_Ast.Program program) {
+        SMSL_IR.Builder code = new SMSL_IR.Builder(program.symbols);
+
+        for (SMSL_Ast.Node item : program.items) {
+            if (item instanceof SMSL_Ast.StateDecl) {
+                SMSL_Ast.StateDecl state = (SMSL_Ast.StateDecl) item;
+                for (SMSL_Ast.Node member : state.body) {
+                    emitQuadruples(member, code, state.id);
+                }
             } else {
-                seenExpressions.add(expression);
+                emitQuadruples(item, code, SMSL_IR.NONE);
             }
         }
 
-        // Transition merging
-        Map<String, String> mergedTransitions = new HashMap<>();
-        for (int i = 0; i < quadruples.size(); i++) {
-            String[] quad = quadruples.get(i);
-            if (quad[0].equals("TRANSITION")) {
-                String key = quad[2] + "," + quad[3]; // Event and target state
-                if (mergedTransitions.containsKey(key)) {
-                    // Merge transitions
-                    quad[1] = mergedTransitions.get(key) + "_" + quad[1];
-                    quadruples.set(i, quad);
-                } else {
-                    mergedTransitions.put(key, quad[1]);
-                }
+        return code.build();
+    }
+
+    private static void emitQuadruples(SMSL_Ast.Node node, SMSL_IR.Builder code, int source) {
+        if (node instanceof SMSL_Ast.ActionStmt) {
+            code.action(((SMSL_Ast.ActionStmt) node).id, SMSL_IR.NONE, source);
+        } else if (node instanceof SMSL_Ast.TransitionDecl) {
+            SMSL_Ast.TransitionDecl transition = (SMSL_Ast.TransitionDecl) node;
+            code.transition(transition.id, transition.eventId, transition.targetId, source);
+            for (SMSL_Ast.ActionStmt action : transition.actions) {
+                code.action(action.id, transition.id, source);
             }
         }
     }
 
-    public static void printQuadruplesAsTable(List<String[]> quadruples) {
-        System.out.println(CYAN + "\n------------------Code Optimized ------------------" + RESET);
-        System.out.printf(CYAN + "| %-15s | %-15s | %-15s | %-15s |\n" + RESET, "Operation", "Arg1", "Arg2", "Result");
-        System.out.println(CYAN + "-------------------------------------------------------------" + RESET);
-        for (String[] quad : quadruples) {
-            System.out.printf(CYAN + "| %-15s | %-15s | %-15s | %-15s |\n" + RESET, quad[0], quad[1], quad[2], quad[3]);
-        }
-        System.out.println(CYAN + "-------------------------------------------------------------" + RESET);
+    // Runs the default optimizer passes; see SMSL_Optimizer
+    public static SMSL_IR optimizeCode(SMSL_IR code) {
+        return new SMSL_Optimizer().optimize(code);
     }
 
-    public static void printIntermediateCodeAsTable(List<String[]> quadruples) {
-        System.out.println(CYAN + "\n------------------ Intermediate Code ------------------" + RESET);
-        System.out.printf(CYAN + "| %-15s | %-15s | %-15s | %-15s |\n" + RESET, "Operation", "Arg1", "Arg2", "Result");
-        System.out.println(CYAN + "-------------------------------------------------------------" + RESET);
-        for (String[] quad : quadruples) {
-            System.out.printf(CYAN + "| %-15s | %-15s | %-15s | %-15s |\n" + RESET, quad[0], quad[1], quad[2], quad[3]);
-        }
-        System.out.println(CYAN + "-------------------------------------------------------------" + RESET);
+    public static void printQuadruplesAsTable(SMSL_IR code) {
+        SMSL_Reporter reporter = consoleReporter();
+        reporter.optimizedCode(code);
+        reporter.flush();
     }
 
-    public static void displayErrors() {
-        if (!semanticErrors.isEmpty()) {
-            System.out.println(RED + "\nSemantic Errors:" + RESET);
+    public static void printIntermediateCodeAsTable(SMSL_IR code) {
+        SMSL_Reporter reporter = consoleReporter();
+        reporter.intermediateCode(code);
+        reporter.flush();
+    }
 
-            // Sort semantic errors by line number
-            semanticErrors.sort((a, b) -> {
-                try {
-                    int lineA = Integer.parseInt(a.replaceAll(".*Line (\\d+).*", "$1"));
-                    int lineB = Integer.parseInt(b.replaceAll(".*Line (\\d+).*", "$1"));
-                    return Integer.compare(lineA, lineB);
-                } catch (NumberFormatException e) {
-                    // If no line number is found, keep the error at the end
-                    return a.contains("Line") ? -1 : 1;
-                }
-            });
+    public static void printOptimizationReport(List<SMSL_Optimizer.PassResult> passes) {
+        SMSL_Reporter reporter = consoleReporter();
+        reporter.optimizationPasses(passes);
+        reporter.flush();
+    }
+
+    private static SMSL_Reporter consoleReporter() {
+        return SMSL_Reporter.create(SMSL_Reporter.Mode.PRETTY, System.out, SMSL_Reporter.colorByDefault());
+    }
 
-            // Display sorted errors
-            semanticErrors.forEach(error -> System.out.println(RED + error + RESET));
-        } else {
-            System.out.println(GREEN + "\nNo semantic errors found." + RESET);
+    // Semantic errors and warnings, already sorted by position
+    public void displayErrors() {
+        SMSL_Reporter reporter = verbose ? this.reporter : consoleReporter();
+        reporter.semanticErrors(diagnostics.phase(SMSL_Diagnostic.Phase.SEMANTIC));
+        if (!verbose) reporter.flush();
+    }
+
+    // Value of a numeric option; a usage error if it isn't a whole number in [min, max]
+    private static long numberOption(String arg, String name, long min, long max) {
+        String value = arg.substring(name.length());
+        String bound = "of at least " + min;
+        try {
+            long number = Long.parseLong(value);
+            if (number >= min && number <= max) return number;
+            if (number > max) bound = "of at most " + max;
+        } catch (NumberFormatException e) {
+            if (value.matches("\\d+")) bound = "of at most " + max; // Too long for a long
         }
+        usageError(name.substring(0, name.length() - 1) + " takes a whole number " + bound + ", not '" + value + "'");
+        return min;
+    }
+
+    private static SMSL_Reporter.Mode outputOption(String value) {
+        for (SMSL_Reporter.Mode mode : SMSL_Reporter.Mode.values()) {
+            if (mode.name().equalsIgnoreCase(value)) return mode;
+        }
+        usageError("--output takes pretty, quiet or ndjson, not '" + value + "'");
+        return SMSL_Reporter.Mode.PRETTY;
+    }
+
+    // Exits with 2, like SMSL_Client for a bad command line
+    private static void usageError(String message) {
+        System.err.println("Usage error: " + message);
+        System.exit(2);
     }
 
     public static void main(String[] args) {
-        List<String> lines = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader("noerror_smsl.txt"))) { // Updated to read from test_cases.txt
-            String line;
-            while ((line = br.readLine()) != null) {
-                lines.add(line);
+        boolean useRegexLexer = false;
+        String batchDirectory = null;
+        boolean watch = false;
+        boolean daemon = false;
+        String socket = SMSL_Daemon.DEFAULT_ADDRESS;
+        String emitDirectory = null;
+        boolean printStats = false;
+        boolean runtimeBenchmark = false;
+        boolean layoutBenchmark = false;
+        int benchmarkInstances = 1_000_000;
+        long benchmarkEvents = 20_000_000L;
+        boolean useCache = true;
+        boolean clearCache = false;
+        String cacheDirectory = SMSL_CompileCache.DEFAULT_DIRECTORY;
+        long cacheMaxBytes = SMSL_CompileCache.DEFAULT_MAX_BYTES;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int maxErrors = 0;
+        SMSL_Reporter.Mode outputMode = SMSL_Reporter.Mode.PRETTY;
+        boolean color = SMSL_Reporter.colorByDefault();
+        List<String> inputs = new ArrayList<>();
+
+        for (String arg : args) {
+            if (arg.equals("--lexer=regex")) {
+                useRegexLexer = true;
+            } else if (arg.equals("--lexer=dfa")) {
+                useRegexLexer = false;
+            } else if (arg.startsWith("--batch=")) {
+                batchDirectory = arg.substring("--batch=".length());
+            } else if (arg.equals("--watch")) {
+                watch = true;
+            } else if (arg.equals("--daemon")) {
+                daemon = true;
+            } else if (arg.startsWith("--socket=")) {
+                socket = arg.substring("--socket=".length());
+            } else if (arg.startsWith("--emit-java=")) {
+                emitDirectory = arg.substring("--emit-java=".length());
+            } else if (arg.equals("--stats")) {
+                printStats = true;
+            } else if (arg.equals("--runtime-bench")) {
+                runtimeBenchmark = true;
+            } else if (arg.equals("--layout-bench")) {
+                layoutBenchmark = true;
+            } else if (arg.startsWith("--instances=")) {
+                benchmarkInstances = (int) numberOption(arg, "--instances=", 1, Integer.MAX_VALUE);
+            } else if (arg.startsWith("--events=")) {
+                benchmarkEvents = numberOption(arg, "--events=", 1, Long.MAX_VALUE);
+            } else if (arg.equals("--no-cache")) {
+                useCache = false;
+            } else if (arg.equals("--clear-cache")) {
+                clearCache = true;
+            } else if (arg.startsWith("--cache-dir=")) {
+                cacheDirectory = arg.substring("--cache-dir=".length());
+            } else if (arg.startsWith("--cache-size=")) {
+                cacheMaxBytes = numberOption(arg, "--cache-size=", 0, Long.MAX_VALUE >> 20) << 20; // MiB
+            } else if (arg.startsWith("--output=")) {
+                outputMode = outputOption(arg.substring("--output=".length()));
+            } else if (arg.equals("--color=always")) {
+                color = true;
+            } else if (arg.equals("--color=never")) {
+                color = false;
+            } else if (arg.startsWith("--max-errors=")) {
+                maxErrors = (int) numberOption(arg, "--max-errors=", 0, Integer.MAX_VALUE);
+            } else if (arg.startsWith("--parallelism=")) {
+                parallelism = (int) numberOption(arg, "--parallelism=", 1, Integer.MAX_VALUE);
+            } else {
+                inputs.add(arg); // File path, or "-" for stdin
             }
-        } catch (IOException e) {
-            System.out.println(RED + "Error reading file!" + RESET);
-            return;
         }
 
-        // Perform lexical analysis
-        lexicalAnalyzer(lines);
+        if (watch && useRegexLexer) {
+            usageError("--watch relexes only the changed blocks, with the built-in scanner; drop --lexer=regex");
+        }
 
-        // Stop further processing if lexical errors are found
-        if (!lexicalErrors.isEmpty()) {
-            System.out.println(RED + "\nCompilation stopped due to lexical errors." + RESET);
-            return;
+        SMSL_Reporter reporter = SMSL_Reporter.create(outputMode, System.out, color);
+        SMSL_CompileCache cache = new SMSL_CompileCache(java.nio.file.Paths.get(cacheDirectory), cacheMaxBytes);
+        if (clearCache) {
+            try {
+                cache.clear();
+            } catch (IOException e) {
+                reporter.message(SMSL_Reporter.Level.ERROR, "Error clearing cache '" + cacheDirectory + "'!");
+            }
+            reporter.flush();
+            if (inputs.isEmpty() && batchDirectory == null) return;
         }
 
-        // Perform syntax analysis
-        syntaxAnalyzer(lines);
+        if (daemon) {
+            try {
+                new SMSL_Daemon(socket, parallelism, color).serve();
+            } catch (IOException e) {
+                reporter.message(SMSL_Reporter.Level.ERROR, "Error running daemon on '" + socket + "': " + e.getMessage());
+                reporter.flush();
+            }
+            return;
+        }
 
-        // Stop further processing if syntax errors are found
-        if (!syntaxErrors.isEmpty()) {
-            System.out.println(RED + "\nCompilation stopped due to syntax errors." + RESET);
+        if (batchDirectory != null) {
+            SMSL_BatchCompiler.run(java.nio.file.Paths.get(batchDirectory), parallelism, useRegexLexer, maxErrors,
+                    reporter);
             return;
         }
 
-        // Perform semantic analysis
-        semanticAnalyzer(lines);
+        if (inputs.isEmpty()) {
+            inputs.add("noerror_smsl.txt");
+        }
 
-        // Stop further processing if semantic errors are found
-        if (!semanticErrors.isEmpty()) {
-            displayErrors();
-            System.out.println(RED + "\nCompilation stopped due to semantic errors." + RESET);
+        if (watch) {
+            SMSL_IncrementalCompiler.watch(java.nio.file.Paths.get(inputs.get(0)), maxErrors, parallelism, reporter);
             return;
         }
 
-        // Generate intermediate code
-        List<String[]> quadruples = generateIntermediateCode(lines);
-        printIntermediateCodeAsTable(quadruples);
+        SMSL_Compiler compiler = new SMSL_Compiler(useRegexLexer, reporter, maxErrors, parallelism,
+                useCache ? cache : null);
+        for (String input : inputs) {
+            SMSL_Source source;
+            try {
+                source = input.equals("-")
+                        ? SMSL_Source.fromStream("<stdin>", System.in)
+                        : SMSL_Source.fromFile(java.nio.file.Paths.get(input));
+            } catch (IOException e) {
+                reporter.message(SMSL_Reporter.Level.ERROR, "Error reading file '" + input + "'!");
+                reporter.flush();
+                continue;
+            }
 
-        // Optimize the code
-        optimizeCode(quadruples);
-        printQuadruplesAsTable(quadruples);
+            SMSL_CompilationResult result;
+            if (!useCache) {
+                result = compiler.compile(source);
+            } else {
+                String key = cache.key(source, useRegexLexer, maxErrors);
+                result = cache.load(key, source.name);
+                if (result != null) {
+                    reporter.begin(source.name);
+                    reporter.cachedResult(result);
+                } else {
+                    result = compiler.compile(source);
+                    // A spec with imports isn't stored whole, so a change to a module is seen;
+                    // unchanged modules come from their own cache entries
+                    if (result.program.imports.isEmpty()) {
+                        try {
+                            cache.store(key, result);
+                        } catch (IOException e) {
+                            reporter.message(SMSL_Reporter.Level.WARNING,
+                                    "Could not write compile cache: " + e.getMessage());
+                        }
+                    }
+                }
+            }
 
-        // Display errors (if any)
-        displayErrors();
+            if (emitDirectory != null && !result.hasErrors()) {
+                String className = SMSL_CodeGenerator.className(source.name);
+                try {
+                    java.nio.file.Path file = SMSL_CodeGenerator.emit(result.optimizedCode, className,
+                            java.nio.file.Paths.get(emitDirectory));
+                    reporter.message(SMSL_Reporter.Level.INFO, "\nGenerated " + file + " and its class file.");
+                } catch (IOException e) {
+                    reporter.message(SMSL_Reporter.Level.ERROR, "\nError generating " + className + ": " + e.getMessage());
+                }
+            }
+            if (printStats) reporter.stats(result.stats);
+            reporter.end(result);
+            reporter.flush();
+
+            if (runtimeBenchmark && !result.hasErrors()) {
+                SMSL_Runtime.Benchmark benchmark = SMSL_Runtime.benchmark(result.optimizedCode,
+                        benchmarkInstances, benchmarkEvents, parallelism);
+                if (benchmark == null) {
+                    reporter.message(SMSL_Reporter.Level.ERROR, "Nothing to run: the machine has no states or events.");
+                } else {
+                    reporter.runtimeBenchmark(benchmark);
+                }
+                reporter.flush();
+            }
+            if (layoutBenchmark && !result.hasErrors()) {
+                SMSL_TableLayout.Benchmark benchmark = SMSL_TableLayout.benchmark(result.optimizedCode,
+                        benchmarkEvents);
+                if (benchmark == null) {
+                    reporter.message(SMSL_Reporter.Level.ERROR, "Nothing to look up: the machine has no states or events.");
+                } else {
+                    reporter.layoutBenchmark(benchmark);
+                }
+                reporter.flush();
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,246 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Keeps a warmed-up compiler resident, so builds of many small specs don't pay
+// for JVM startup and a cold JIT on every compile. Listens on a Unix-domain
+// socket, or on a loopback TCP port, and serves each connection on one of
+// `parallelism` worker threads: the client sends sources and options, the daemon
+// compiles them with a fresh SMSL_Compiler, renders the output in the requested
+// mode into a buffer and sends it back. SMSL_Client is the command-line client.
+//
+// Protocol, with DataOutputStream encodings:
+//   request:  MAGIC, VERSION, command byte. COMPILE continues with the regex lexer
+//             flag, max errors, output mode name, colour and stats flags, the
+//             client's absolute working directory, which source names and their
+//             imports are resolved against, the source count, then each source's
+//             name and UTF-8 text (length, bytes).
+//   response: status byte. OK continues with the error count, compile nanos and
+//             the rendered output (length, UTF-8 bytes); FAILED with a message.
+public class SMSL_Daemon {
+    public static final int MAGIC = 0x534d534c; // "SMSL"
+    public static final int VERSION = 2;
+    public static final byte COMPILE = 1;
+    public static final byte STOP = 2;
+    public static final byte OK = 0;
+    public static final byte FAILED = 1;
+    public static final String DEFAULT_ADDRESS = SMSL_CompileCache.DEFAULT_DIRECTORY + "/daemon.sock";
+
+    private static final int WARM_UP_ROUNDS = 10;
+
+    private final String addressSpec;
+    private final SocketAddress address;
+    private final int parallelism;
+    private final boolean color; // Of the request log
+    private final AtomicInteger requests = new AtomicInteger();
+    private ServerSocketChannel server;
+
+    // addressSpec is a socket path, or a port number to listen on the loopback interface
+    public SMSL_Daemon(String addressSpec, int parallelism) {
+        this(addressSpec, parallelism, SMSL_Reporter.colorByDefault());
+    }
+
+    // color is for the request log only; each client chooses colour for its own output
+    public SMSL_Daemon(String addressSpec, int parallelism, boolean color) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.addressSpec = addressSpec;
+        this.address = SMSL_Client.address(addressSpec);
+        this.parallelism = parallelism;
+        this.color = color;
+    }
+
+    // Serves requests until a client sends STOP
+    public void serve() throws IOException {
+        server = open(); // Clients that connect during the warm-up wait in the backlog
+        long warmUpNanos = warmUp();
+        log(SMSL_Compiler.CYAN, String.format("Listening on %s with %d workers (warm-up %.0f ms)",
+                addressSpec, parallelism, warmUpNanos / 1e6));
+
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        try {
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException e) {
+                    break; // Stopped
+                }
+                long accepted = System.nanoTime();
+                workers.execute(() -> handle(client, accepted));
+            }
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            server.close();
+            if (address instanceof UnixDomainSocketAddress) {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+            log(SMSL_Compiler.CYAN, "Stopped after " + requests.get() + " requests");
+        }
+    }
+
+    private ServerSocketChannel open() throws IOException {
+        if (!(address instanceof UnixDomainSocketAddress)) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.bind(address);
+            return channel;
+        }
+        Path path = ((UnixDomainSocketAddress) address).getPath();
+        if (Files.exists(path)) {
+            // Left behind by a daemon that didn't stop cleanly, unless one still answers
+            boolean running;
+            try {
+                SocketChannel.open(address).close();
+                running = true;
+            } catch (IOException e) {
+                running = false;
+            }
+            if (running) throw new IOException("A daemon is already listening on " + path);
+            Files.delete(path);
+        }
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(address);
+        return channel;
+    }
+
+    // Compiles a generated spec in every output mode until the hot paths are JIT-compiled
+    private static long warmUp() {
+        long start = System.nanoTime();
+        String spec = SMSL_SpecGenerator.forLines(2_000, 2, 1, 0.1, 1).generate();
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream(), false, StandardCharsets.UTF_8);
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            for (SMSL_Reporter.Mode mode : SMSL_Reporter.Mode.values()) {
+                SMSL_Reporter reporter = SMSL_Reporter.create(mode, sink, false);
+                SMSL_CompilationResult result = new SMSL_Compiler(false, reporter).compile("<warm-up>", spec);
+                reporter.end(result);
+                reporter.flush();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void handle(SocketChannel channel, long accepted) {
+        int id = requests.incrementAndGet();
+        try (SocketChannel client = channel;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                fail(out, id, "Unsupported protocol; client and daemon versions differ");
+                return;
+            }
+            byte command = in.readByte();
+            if (command == STOP) {
+                respond(out, 0, 0, new ByteArrayOutputStream());
+                log(SMSL_Compiler.CYAN, "#" + id + " stop");
+                server.close();
+                return;
+            }
+            if (command != COMPILE) {
+                fail(out, id, "Unknown command " + command);
+                return;
+            }
+
+            boolean useRegexLexer = in.readBoolean();
+            int maxErrors = in.readInt();
+            String mode = in.readUTF();
+            boolean color = in.readBoolean();
+            boolean printStats = in.readBoolean();
+            String workingDirectory = in.readUTF();
+            int count = in.readInt();
+            List<SMSL_Source> sources = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int length = in.readInt();
+                if (length < 0) throw new IOException("Negative source length");
+                byte[] text = in.readNBytes(length);
+                if (text.length != length) throw new IOException("Request ended inside " + name);
+                sources.add(SMSL_Source.fromStream(name, new ByteArrayInputStream(text)));
+            }
+
+            SMSL_Compiler compiler;
+            SMSL_Reporter reporter;
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            PrintStream stream = new PrintStream(output, false, StandardCharsets.UTF_8);
+            try {
+                reporter = SMSL_Reporter.create(SMSL_Reporter.Mode.valueOf(mode), stream, color);
+                compiler = new SMSL_Compiler(useRegexLexer, reporter, maxErrors, 1, null,
+                        Paths.get(workingDirectory));
+            } catch (IllegalArgumentException e) {
+                fail(out, id, e.getMessage());
+                return;
+            }
+
+            long start = System.nanoTime();
+            int errors = 0;
+            for (SMSL_Source source : sources) {
+                SMSL_CompilationResult result = compiler.compile(source);
+                if (printStats) reporter.stats(result.stats);
+                reporter.end(result);
+                reporter.flush();
+                errors += result.errors().size();
+            }
+            long compileNanos = System.nanoTime() - start;
+            stream.flush();
+            respond(out, errors, compileNanos, output);
+
+            log(errors == 0 ? SMSL_Compiler.GREEN : SMSL_Compiler.RED, String.format(
+                    "#%d %d source(s), %d error(s): compile %.3f ms, request %.3f ms",
+                    id, count, errors, compileNanos / 1e6, (System.nanoTime() - accepted) / 1e6));
+        } catch (IOException | RuntimeException e) {
+            log(SMSL_Compiler.RED, "#" + id + " failed: " + e);
+        }
+    }
+
+    private static void respond(DataOutputStream out, int errors, long compileNanos, ByteArrayOutputStream output)
+            throws IOException {
+        out.writeByte(OK);
+        out.writeInt(errors);
+        out.writeLong(compileNanos);
+        out.writeInt(output.size());
+        output.writeTo(out);
+        out.flush();
+    }
+
+    private void fail(DataOutputStream out, int id, String message) throws IOException {
+        String text = message == null ? "Request failed" : message;
+        out.writeByte(FAILED);
+        out.writeUTF(text);
+        out.flush();
+        log(SMSL_Compiler.RED, "#" + id + " rejected: " + text);
+    }
+
+    // Without colour when stdout isn't a terminal, e.g. a log file
+    private void log(String color, String text) {
+        System.out.println(this.color ? color + text + SMSL_Compiler.RESET : text);
+    }
+}
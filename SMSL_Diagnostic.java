@@ -0,0 +1,193 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// One message from the compiler, with its position, severity and a stable code
+// that tools can match on. toString() gives the classic "Line N: <Phase> Error -
+// message" form that the console and the result's string lists show, prefixed
+// with the module for diagnostics in a file the compiled source imports.
+public final class SMSL_Diagnostic {
+    public enum Phase {
+        LEXICAL("Lexical"),
+        SYNTAX("Syntax"),
+        SEMANTIC("Semantic");
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    public enum Severity { ERROR, WARNING, NOTE }
+
+    // Codes by phase: SMSL1xx lexical, SMSL2xx syntax, SMSL3xx semantic, SMSL9xx compiler
+    public static final String UNKNOWN_LEXEME = "SMSL100";
+    public static final String LEXER_FAILURE = "SMSL101";
+    public static final String UNEXPECTED_TOKEN = "SMSL200";
+    public static final String DUPLICATE_STATE = "SMSL300";
+    public static final String MISSING_EVENT = "SMSL301";
+    public static final String UNDEFINED_STATE = "SMSL302";
+    public static final String EMPTY_STATE = "SMSL303";
+    public static final String NONDETERMINISTIC_TRANSITION = "SMSL304";
+    public static final String UNREACHABLE_STATE = "SMSL305";
+    public static final String DEAD_END_STATE = "SMSL306";
+    public static final String UNRESOLVED_IMPORT = "SMSL307";
+    public static final String TOO_MANY_ERRORS = "SMSL900";
+
+    // Sorted by module, the compiled source first, then line and column; messages
+    // without a line go last in their module
+    public static final Comparator<SMSL_Diagnostic> BY_POSITION =
+            Comparator.comparing((SMSL_Diagnostic d) -> d.source, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparingInt(d -> d.line == 0 ? Integer.MAX_VALUE : d.line)
+                    .thenComparingInt(d -> d.column);
+
+    public final Phase phase;
+    public final Severity severity;
+    public final String code;
+    public final int line; // 1-based; 0 if the message has no position
+    public final int column; // 1-based; 0 if unknown
+    public final String message;
+    public final String source; // Imported module the position is in; null for the compiled source
+
+    public SMSL_Diagnostic(Phase phase, Severity severity, String code, int line, int column, String message) {
+        this(phase, severity, code, line, column, message, null);
+    }
+
+    public SMSL_Diagnostic(Phase phase, Severity severity, String code, int line, int column, String message,
+                           String source) {
+        this.phase = phase;
+        this.severity = severity;
+        this.code = code;
+        this.line = line;
+        this.column = column;
+        this.message = message;
+        this.source = source;
+    }
+
+    // The same diagnostic in an imported module
+    public SMSL_Diagnostic inModule(String source) {
+        return new SMSL_Diagnostic(phase, severity, code, line, column, message, source);
+    }
+
+    public static SMSL_Diagnostic error(Phase phase, String code, int line, int column, String message) {
+        return new SMSL_Diagnostic(phase, Severity.ERROR, code, line, column, message);
+    }
+
+    public static SMSL_Diagnostic warning(Phase phase, String code, int line, int column, String message) {
+        return new SMSL_Diagnostic(phase, Severity.WARNING, code, line, column, message);
+    }
+
+    @Override
+    public String toString() {
+        if (severity == Severity.NOTE) return message;
+        String text = phase.label + (severity == Severity.ERROR ? " Error - " : " Warning - ") + message;
+        if (line != 0) text = "Line " + line + ": " + text;
+        return source == null ? text : source + ": " + text;
+    }
+
+    // The messages of one phase's errors, in order
+    public static List<String> messages(List<SMSL_Diagnostic> diagnostics, Phase phase) {
+        List<String> messages = new ArrayList<>();
+        for (SMSL_Diagnostic diagnostic : diagnostics) {
+            if (diagnostic.phase == phase && diagnostic.severity == Severity.ERROR) {
+                messages.add(diagnostic.toString());
+            }
+        }
+        return messages;
+    }
+
+    // Phase by phase and each phase by position, as a compilation returns them
+    public static boolean sorted(List<SMSL_Diagnostic> diagnostics) {
+        for (int i = 1; i < diagnostics.size(); i++) {
+            SMSL_Diagnostic previous = diagnostics.get(i - 1);
+            SMSL_Diagnostic diagnostic = diagnostics.get(i);
+            int phase = previous.phase.compareTo(diagnostic.phase);
+            if (phase > 0 || phase == 0 && BY_POSITION.compare(previous, diagnostic) > 0) return false;
+        }
+        return true;
+    }
+
+    // Collects the diagnostics of one compilation, up to an optional limit on
+    // errors. Once the limit is reached a single note says so, later errors are
+    // dropped and full() tells the phases they can stop early. Diagnostics are
+    // kept phase by phase: one added after a later phase's goes before them.
+    public static final class Collector {
+        private final List<SMSL_Diagnostic> diagnostics = new ArrayList<>();
+        private final int maxErrors; // 0 for no limit
+        private int errors;
+        private boolean full;
+
+        public Collector() {
+            this(0);
+        }
+
+        public Collector(int maxErrors) {
+            if (maxErrors < 0) throw new IllegalArgumentException("Error limit must not be negative: " + maxErrors);
+            this.maxErrors = maxErrors;
+        }
+
+        // Returns false if the diagnostic was dropped because the limit was reached
+        public boolean add(SMSL_Diagnostic diagnostic) {
+            if (full) return false;
+            if (diagnostic.severity == Severity.ERROR && maxErrors > 0 && errors == maxErrors) {
+                full = true;
+                insert(new SMSL_Diagnostic(diagnostic.phase, Severity.NOTE, TOO_MANY_ERRORS, 0, 0,
+                        "Too many errors; stopped after " + maxErrors + "."));
+                return false;
+            }
+            if (diagnostic.severity == Severity.ERROR) errors++;
+            insert(diagnostic);
+            return true;
+        }
+
+        private void insert(SMSL_Diagnostic diagnostic) {
+            int i = diagnostics.size();
+            while (i > 0 && diagnostics.get(i - 1).phase.ordinal() > diagnostic.phase.ordinal()) i--;
+            diagnostics.add(i, diagnostic);
+        }
+
+        public void addAll(List<SMSL_Diagnostic> diagnostics) {
+            for (SMSL_Diagnostic diagnostic : diagnostics) {
+                if (!add(diagnostic)) return;
+            }
+        }
+
+        public boolean full() {
+            return full;
+        }
+
+        public int errorCount() {
+            return errors;
+        }
+
+        public boolean hasErrors(Phase phase) {
+            for (SMSL_Diagnostic diagnostic : diagnostics) {
+                if (diagnostic.phase == phase && diagnostic.severity == Severity.ERROR) return true;
+            }
+            return false;
+        }
+
+        // Sorts the given phase's diagnostics by position, keeping the phases in order
+        public void sort(Phase phase) {
+            int from = 0;
+            while (from < diagnostics.size() && diagnostics.get(from).phase.ordinal() < phase.ordinal()) from++;
+            int to = from;
+            while (to < diagnostics.size() && diagnostics.get(to).phase == phase) to++;
+            diagnostics.subList(from, to).sort(BY_POSITION);
+        }
+
+        public List<SMSL_Diagnostic> diagnostics() {
+            return Collections.unmodifiableList(diagnostics);
+        }
+
+        public List<SMSL_Diagnostic> phase(Phase phase) {
+            List<SMSL_Diagnostic> result = new ArrayList<>();
+            for (SMSL_Diagnostic diagnostic : diagnostics) {
+                if (diagnostic.phase == phase) result.add(diagnostic);
+            }
+            return result;
+        }
+    }
+}
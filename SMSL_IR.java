@@ -0,0 +1,270 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Typed intermediate code. Each instruction is five ints packed into one buffer:
+// an opcode, three operands and the state it belongs to, all IDs in the IR's
+// symbol table (-1 when unused). An IR is immutable once built; the buffer is
+// either a heap int array or a view straight into a serialized image, e.g. a
+// memory-mapped file.
+//
+// Instructions of a state are contiguous, and a transition's actions directly
+// follow it. The first state with instructions is the start state.
+public class SMSL_IR {
+    public enum Opcode {
+        ACTION,     // arg1 = action, arg2 = owning transition (-1 for state actions)
+        TRANSITION  // arg1 = transition, arg2 = event (-1 if missing), result = target state
+    }
+
+    public static final int NONE = -1;
+
+    // Binary image: magic, format version, symbol table, instruction count, instructions
+    private static final int MAGIC = 0x534D4952; // "SMIR"
+    public static final int FORMAT_VERSION = 2;
+
+    private static final Opcode[] OPCODES = Opcode.values();
+    private static final int WIDTH = 5;
+
+    private final IntBuffer code;
+    private final int size;
+    private final SMSL_SymbolTable symbols;
+
+    private SMSL_IR(IntBuffer code, int size, SMSL_SymbolTable symbols) {
+        this.code = code;
+        this.size = size;
+        this.symbols = symbols;
+    }
+
+    public static SMSL_IR empty(SMSL_SymbolTable symbols) {
+        return new SMSL_IR(IntBuffer.allocate(0), 0, symbols);
+    }
+
+    public SMSL_SymbolTable symbols() {
+        return symbols;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Opcode opcode(int i) {
+        return OPCODES[code.get(i * WIDTH)];
+    }
+
+    public int arg1(int i) {
+        return code.get(i * WIDTH + 1);
+    }
+
+    public int arg2(int i) {
+        return code.get(i * WIDTH + 2);
+    }
+
+    public int result(int i) {
+        return code.get(i * WIDTH + 3);
+    }
+
+    // State whose body holds the instruction; -1 for top-level transitions, which
+    // fire from any state without a transition of its own for the event
+    public int source(int i) {
+        return code.get(i * WIDTH + 4);
+    }
+
+    public int startState() {
+        for (int i = 0; i < size; i++) {
+            if (source(i) != NONE) return source(i);
+        }
+        return NONE;
+    }
+
+    public boolean sameInstruction(int i, SMSL_IR other, int j) {
+        for (int k = 0; k < WIDTH; k++) {
+            if (code.get(i * WIDTH + k) != other.code.get(j * WIDTH + k)) return false;
+        }
+        return true;
+    }
+
+    public int hashInstruction(int i) {
+        int h = 0;
+        for (int k = 0; k < WIDTH; k++) {
+            h = h * 0x9E3779B1 + code.get(i * WIDTH + k);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    // Debug view in the old quadruple form: {op, arg1, arg2, result}, "" for unused
+    // operands. The owning transition and source state are not shown.
+    public String[] quadruple(int i) {
+        Opcode op = opcode(i);
+        if (op == Opcode.ACTION) {
+            return new String[]{op.name(), symbols.name(SMSL_SymbolTable.ACTION, arg1(i)), "", ""};
+        }
+        int event = arg2(i);
+        return new String[]{op.name(), symbols.name(SMSL_SymbolTable.TRANSITION, arg1(i)),
+                event == NONE ? "" : symbols.name(SMSL_SymbolTable.EVENT, event),
+                symbols.name(SMSL_SymbolTable.STATE, result(i))};
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        for (int kind = 0; kind < SMSL_SymbolTable.KINDS; kind++) {
+            out.writeInt(symbols.size(kind));
+            for (int id = 0; id < symbols.size(kind); id++) {
+                writeString(out, symbols.name(kind, id));
+            }
+        }
+        out.writeInt(size);
+        for (int i = 0; i < size * WIDTH; i++) {
+            out.writeInt(code.get(i));
+        }
+    }
+
+    // Reads an image written by write(), starting at the buffer's position. The
+    // instructions stay in the buffer and are accessed through a view, not copied.
+    // Leaves the position after the image.
+    public static SMSL_IR read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) throw new IOException("Not an SMSL IR image");
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) throw new IOException("Unsupported IR format version " + version);
+
+            SMSL_SymbolTable symbols = new SMSL_SymbolTable();
+            for (int kind = 0; kind < SMSL_SymbolTable.KINDS; kind++) {
+                int count = readCount(buffer, 4);
+                for (int id = 0; id < count; id++) {
+                    if (symbols.intern(kind, readString(buffer)) != id) {
+                        throw new IOException("Duplicate symbol in SMSL IR image");
+                    }
+                }
+            }
+
+            int size = readCount(buffer, WIDTH * Integer.BYTES);
+            ByteBuffer image = buffer.slice();
+            image.order(buffer.order()).limit(size * WIDTH * Integer.BYTES);
+            buffer.position(buffer.position() + image.limit());
+            SMSL_IR ir = new SMSL_IR(image.asIntBuffer(), size, symbols);
+            ir.validate();
+            return ir;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated SMSL IR image", e);
+        }
+    }
+
+    // Operands of a deserialized IR must name symbols that exist
+    private void validate() throws IOException {
+        for (int i = 0; i < size; i++) {
+            int op = code.get(i * WIDTH);
+            boolean valid;
+            if (op == Opcode.ACTION.ordinal()) {
+                valid = valid(SMSL_SymbolTable.ACTION, arg1(i), false)
+                        && valid(SMSL_SymbolTable.TRANSITION, arg2(i), true);
+            } else if (op == Opcode.TRANSITION.ordinal()) {
+                valid = valid(SMSL_SymbolTable.TRANSITION, arg1(i), false)
+                        && valid(SMSL_SymbolTable.EVENT, arg2(i), true)
+                        && valid(SMSL_SymbolTable.STATE, result(i), false);
+            } else {
+                valid = false;
+            }
+            if (!valid || !valid(SMSL_SymbolTable.STATE, source(i), true)) {
+                throw new IOException("Invalid instruction " + i + " in SMSL IR image");
+            }
+        }
+    }
+
+    private boolean valid(int kind, int id, boolean optional) {
+        return (optional && id == NONE) || (id >= 0 && id < symbols.size(kind));
+    }
+
+    // Length-prefixed UTF-8; unlike writeUTF it has no 64 KiB limit
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[readCount(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A count of elements of at least minBytes each can't exceed the bytes left,
+    // which rejects corrupt images before anything is allocated
+    static int readCount(ByteBuffer buffer, int minBytes) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / minBytes) {
+            throw new IOException("Truncated SMSL IR image");
+        }
+        return count;
+    }
+
+    // Appends instructions to a growing int array
+    public static final class Builder {
+        private final SMSL_SymbolTable symbols;
+        private int[] code;
+        private int size;
+
+        public Builder(SMSL_SymbolTable symbols) {
+            this(symbols, 16);
+        }
+
+        public Builder(SMSL_SymbolTable symbols, int initialCapacity) {
+            this.symbols = symbols;
+            this.code = new int[Math.max(16, initialCapacity) * WIDTH];
+        }
+
+        public SMSL_SymbolTable symbols() {
+            return symbols;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Builder add(Opcode op, int arg1, int arg2, int result, int source) {
+            if ((size + 1) * WIDTH > code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            int base = size * WIDTH;
+            code[base] = op.ordinal();
+            code[base + 1] = arg1;
+            code[base + 2] = arg2;
+            code[base + 3] = result;
+            code[base + 4] = source;
+            size++;
+            return this;
+        }
+
+        public Builder action(int action, int transition, int source) {
+            return add(Opcode.ACTION, action, transition, NONE, source);
+        }
+
+        public Builder transition(int transition, int event, int target, int source) {
+            return add(Opcode.TRANSITION, transition, event, target, source);
+        }
+
+        // Copies instruction i of another IR over the same symbol table
+        public Builder add(SMSL_IR ir, int i) {
+            return add(ir.opcode(i), ir.arg1(i), ir.arg2(i), ir.result(i), ir.source(i));
+        }
+
+        public Builder addAll(SMSL_IR ir) {
+            for (int i = 0; i < ir.size(); i++) {
+                add(ir, i);
+            }
+            return this;
+        }
+
+        public SMSL_IR build() {
+            return new SMSL_IR(IntBuffer.wrap(Arrays.copyOf(code, size * WIDTH)), size, symbols);
+        }
+    }
+}
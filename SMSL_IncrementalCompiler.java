@@ -0,0 +1,404 @@
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Recompiles a spec at top-level block granularity. The source is cut after each
+// top-level '}' into blocks; a block whose text was seen in the previous compile
+// reuses its cached tokens, syntax tree and quadruples. Only changed blocks are
+// lexed and parsed again, then the cross-reference checks and optimization run
+// on the whole program.
+//
+// All blocks intern into one symbol table kept across compiles, so cached trees
+// stay valid without remapping IDs. Results of successive compiles share that
+// table; it is rebuilt once most of its names are no longer used.
+public class SMSL_IncrementalCompiler {
+    private final SMSL_Compiler compiler;
+    private SMSL_SymbolTable symbols = new SMSL_SymbolTable();
+    private Map<Long, List<Block>> cache = new HashMap<>();
+    private int reusedBlocks;
+    private int compiledBlocks;
+
+    // One compiled top-level block. It owns a copy of its text, so the cache never
+    // keeps whole earlier versions of the source alive.
+    private static final class Block {
+        final char[] text;
+        final int firstLine; // Line the block's tokens and tree are numbered from
+        final int firstColumn; // Chars before the block on its first line; it starts after another block's '}'
+        final SMSL_TokenBuffer tokens; // Offsets relative to the block text
+        final List<SMSL_Ast.Node> items;
+        final List<SMSL_Ast.ImportDecl> imports;
+        final List<SMSL_Diagnostic> syntaxErrors;
+        final SMSL_IR quadruples;
+        final int[][] symbolIds; // Symbol IDs used by the block, per kind
+
+        Block(char[] text, int firstLine, int firstColumn, SMSL_TokenBuffer tokens, List<SMSL_Ast.Node> items,
+              List<SMSL_Ast.ImportDecl> imports, List<SMSL_Diagnostic> syntaxErrors, SMSL_IR quadruples,
+              int[][] symbolIds) {
+            this.text = text;
+            this.firstLine = firstLine;
+            this.firstColumn = firstColumn;
+            this.tokens = tokens;
+            this.items = items;
+            this.imports = imports;
+            this.syntaxErrors = syntaxErrors;
+            this.quadruples = quadruples;
+            this.symbolIds = symbolIds;
+        }
+
+        boolean sameText(char[] chars, int from, int to) {
+            return Arrays.equals(text, 0, text.length, chars, from, to);
+        }
+
+        // The same block moved to another position; only line and column numbers
+        // change, columns only on the block's first line
+        Block movedTo(int line, int column) {
+            int lineDelta = line - firstLine;
+            int columnDelta = column - firstColumn;
+            SMSL_TokenBuffer moved = new SMSL_TokenBuffer(text, tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                moved.add(tokens.type(i), tokens.line(i) + lineDelta, tokens.start(i), tokens.end(i));
+            }
+            List<SMSL_Ast.Node> movedItems = new ArrayList<>(items.size());
+            for (SMSL_Ast.Node item : items) {
+                movedItems.add(relocate(item, lineDelta, line, columnDelta));
+            }
+            List<SMSL_Ast.ImportDecl> movedImports = new ArrayList<>(imports.size());
+            for (SMSL_Ast.ImportDecl decl : imports) {
+                movedImports.add((SMSL_Ast.ImportDecl) relocate(decl, lineDelta, line, columnDelta));
+            }
+            List<SMSL_Diagnostic> movedErrors = new ArrayList<>(syntaxErrors.size());
+            for (SMSL_Diagnostic d : syntaxErrors) {
+                int errorLine = d.line + lineDelta;
+                movedErrors.add(new SMSL_Diagnostic(d.phase, d.severity, d.code, errorLine,
+                        errorLine == line && d.column > 0 ? d.column + columnDelta : d.column, d.message));
+            }
+            return new Block(text, line, column, moved, movedItems, movedImports, movedErrors, quadruples, symbolIds);
+        }
+    }
+
+    public SMSL_IncrementalCompiler() {
+        this(0, 1);
+    }
+
+    // maxErrors and parallelism as for SMSL_Compiler; blocks are always lexed
+    // with the hand-written scanner
+    public SMSL_IncrementalCompiler(int maxErrors, int parallelism) {
+        this.compiler = new SMSL_Compiler(false, null, maxErrors, parallelism);
+    }
+
+    public int reusedBlocks() {
+        return reusedBlocks;
+    }
+
+    public int compiledBlocks() {
+        return compiledBlocks;
+    }
+
+    // The files the last compiled spec imports, directly or not
+    public synchronized List<Path> moduleFiles() {
+        SMSL_Project project = compiler.project();
+        return project == null ? Collections.emptyList() : project.files();
+    }
+
+    public synchronized SMSL_CompilationResult compile(SMSL_Source source) {
+        Map<Long, List<Block>> nextCache = new HashMap<>();
+        SMSL_TokenBuffer tokens = new SMSL_TokenBuffer(source.chars);
+        SMSL_Ast.Program program = new SMSL_Ast.Program(symbols);
+        List<SMSL_Diagnostic> syntaxErrors = new ArrayList<>();
+        SMSL_IR.Builder quadruples = new SMSL_IR.Builder(symbols);
+        BitSet[] liveSymbols = new BitSet[SMSL_SymbolTable.KINDS];
+        for (int kind = 0; kind < liveSymbols.length; kind++) {
+            liveSymbols[kind] = new BitSet(symbols.size(kind));
+        }
+        reusedBlocks = 0;
+        compiledBlocks = 0;
+
+        // Find block boundaries: a block ends at each '}' that closes depth 0
+        SMSL_Scanner scanner = new SMSL_Scanner(source.chars, 0, source.length, 1);
+        int blockStart = 0;
+        int blockLine = 1;
+        int depth = 0;
+        int type;
+        do {
+            type = scanner.next();
+            boolean blockEnd = type == SMSL_Scanner.EOF;
+            if (type == SMSL_Scanner.SYMBOL) {
+                char symbol = source.chars[scanner.tokenStart()];
+                if (symbol == '{') {
+                    depth++;
+                } else if (symbol == '}' && depth > 0 && --depth == 0) {
+                    blockEnd = true;
+                }
+            }
+            if (blockEnd && scanner.tokenEnd() > blockStart) {
+                long hash = hash(source.chars, blockStart, scanner.tokenEnd());
+                Block block = lookup(hash, source.chars, blockStart, scanner.tokenEnd());
+                int blockColumn = blockStart - lineStart(source.chars, blockStart);
+                if (block == null) {
+                    block = compileBlock(source.chars, blockStart, scanner.tokenEnd(), blockLine);
+                    compiledBlocks++;
+                } else {
+                    reusedBlocks++;
+                }
+                if (block.firstLine != blockLine || block.firstColumn != blockColumn) {
+                    block = block.movedTo(blockLine, blockColumn);
+                }
+                if (block.syntaxErrors.isEmpty()) {
+                    // Blocks with errors are always recompiled, so their messages stay accurate
+                    nextCache.computeIfAbsent(hash, h -> new ArrayList<>()).add(block);
+                }
+                link(block, blockStart, tokens, program, syntaxErrors, quadruples, liveSymbols);
+                blockStart = scanner.tokenEnd();
+                blockLine = scanner.tokenLine();
+            }
+        } while (type != SMSL_Scanner.EOF);
+
+        cache = nextCache;
+        SMSL_CompilationResult result = compiler.compileParsed(source.name, tokens, program, syntaxErrors, quadruples.build());
+
+        // Names of deleted blocks stay in the table; start over once they dominate
+        int live = 0;
+        int total = 0;
+        for (int kind = 0; kind < liveSymbols.length; kind++) {
+            live += liveSymbols[kind].cardinality();
+            total += symbols.size(kind);
+        }
+        if (total > 2 * live + 1024) {
+            symbols = new SMSL_SymbolTable();
+            cache = new HashMap<>();
+        }
+        return result;
+    }
+
+    private Block lookup(long hash, char[] chars, int start, int end) {
+        List<Block> candidates = cache.get(hash);
+        if (candidates != null) {
+            for (Block block : candidates) {
+                if (block.sameText(chars, start, end)) return block;
+            }
+        }
+        return null;
+    }
+
+    private Block compileBlock(char[] chars, int start, int end, int firstLine) {
+        char[] text = Arrays.copyOfRange(chars, start, end);
+        SMSL_TokenBuffer tokens = new SMSL_TokenBuffer(text, 64);
+        SMSL_Scanner scanner = new SMSL_Scanner(text, 0, text.length, firstLine);
+        int type;
+        while ((type = scanner.next()) != SMSL_Scanner.EOF) {
+            tokens.add(type, scanner.tokenLine(), scanner.tokenStart(), scanner.tokenEnd());
+        }
+
+        SMSL_Diagnostic.Collector syntaxErrors = new SMSL_Diagnostic.Collector();
+        SMSL_Ast.Program program = new SMSL_Parser(tokens, syntaxErrors, symbols).parseProgram();
+        SMSL_IR quadruples = syntaxErrors.diagnostics().isEmpty()
+                ? SMSL_Compiler.generateIntermediateCode(program)
+                : SMSL_IR.empty(symbols);
+        // Columns are counted within the block text, as if it started its line
+        return new Block(text, firstLine, 0, tokens, program.items, program.imports, syntaxErrors.diagnostics(),
+                quadruples, usedSymbols(program.items));
+    }
+
+    private static int lineStart(char[] chars, int offset) {
+        while (offset > 0 && chars[offset - 1] != '\n' && chars[offset - 1] != '\r') offset--;
+        return offset;
+    }
+
+    // Appends a block to the combined program
+    private static void link(Block block, int start, SMSL_TokenBuffer tokens, SMSL_Ast.Program program,
+                             List<SMSL_Diagnostic> syntaxErrors, SMSL_IR.Builder quadruples, BitSet[] liveSymbols) {
+        for (int i = 0; i < block.tokens.size(); i++) {
+            // Block tokens are relative to the block text
+            tokens.add(block.tokens.type(i), block.tokens.line(i),
+                    block.tokens.start(i) + start, block.tokens.end(i) + start);
+        }
+        program.items.addAll(block.items);
+        program.imports.addAll(block.imports);
+        syntaxErrors.addAll(block.syntaxErrors);
+        quadruples.addAll(block.quadruples);
+        for (int kind = 0; kind < liveSymbols.length; kind++) {
+            for (int id : block.symbolIds[kind]) {
+                liveSymbols[kind].set(id);
+            }
+        }
+    }
+
+    private static int[][] usedSymbols(List<SMSL_Ast.Node> items) {
+        int[][] ids = new int[SMSL_SymbolTable.KINDS][];
+        int[] counts = new int[SMSL_SymbolTable.KINDS];
+        for (int kind = 0; kind < ids.length; kind++) {
+            ids[kind] = new int[4];
+        }
+        for (SMSL_Ast.Node item : items) {
+            collectSymbols(item, ids, counts);
+        }
+        for (int kind = 0; kind < ids.length; kind++) {
+            ids[kind] = Arrays.copyOf(ids[kind], counts[kind]);
+        }
+        return ids;
+    }
+
+    private static void collectSymbols(SMSL_Ast.Node node, int[][] ids, int[] counts) {
+        if (node instanceof SMSL_Ast.StateDecl) {
+            SMSL_Ast.StateDecl state = (SMSL_Ast.StateDecl) node;
+            addSymbol(SMSL_SymbolTable.STATE, state.id, ids, counts);
+            for (SMSL_Ast.Node member : state.body) {
+                collectSymbols(member, ids, counts);
+            }
+        } else if (node instanceof SMSL_Ast.TransitionDecl) {
+            SMSL_Ast.TransitionDecl transition = (SMSL_Ast.TransitionDecl) node;
+            addSymbol(SMSL_SymbolTable.TRANSITION, transition.id, ids, counts);
+            if (transition.eventId >= 0) addSymbol(SMSL_SymbolTable.EVENT, transition.eventId, ids, counts);
+            addSymbol(SMSL_SymbolTable.STATE, transition.targetId, ids, counts);
+            for (SMSL_Ast.ActionStmt action : transition.actions) {
+                collectSymbols(action, ids, counts);
+            }
+        } else {
+            addSymbol(SMSL_SymbolTable.ACTION, ((SMSL_Ast.ActionStmt) node).id, ids, counts);
+        }
+    }
+
+    private static void addSymbol(int kind, int id, int[][] ids, int[] counts) {
+        if (counts[kind] == ids[kind].length) {
+            ids[kind] = Arrays.copyOf(ids[kind], counts[kind] * 2);
+        }
+        ids[kind][counts[kind]++] = id;
+    }
+
+    // Moves a node by lineDelta lines, and by columnDelta columns if it ends up on firstLine
+    private static SMSL_Ast.Node relocate(SMSL_Ast.Node node, int lineDelta, int firstLine, int columnDelta) {
+        int line = node.line + lineDelta;
+        int column = line == firstLine ? node.column + columnDelta : node.column;
+        if (node instanceof SMSL_Ast.StateDecl) {
+            SMSL_Ast.StateDecl state = (SMSL_Ast.StateDecl) node;
+            SMSL_Ast.StateDecl copy = new SMSL_Ast.StateDecl(line, column, state.name, state.id);
+            copy.recovered = state.recovered;
+            for (SMSL_Ast.Node member : state.body) {
+                copy.body.add(relocate(member, lineDelta, firstLine, columnDelta));
+            }
+            return copy;
+        } else if (node instanceof SMSL_Ast.TransitionDecl) {
+            SMSL_Ast.TransitionDecl transition = (SMSL_Ast.TransitionDecl) node;
+            SMSL_Ast.TransitionDecl copy = new SMSL_Ast.TransitionDecl(line, column, transition.name, transition.id,
+                    transition.event, transition.eventId, transition.target, transition.targetId);
+            for (SMSL_Ast.ActionStmt action : transition.actions) {
+                copy.actions.add((SMSL_Ast.ActionStmt) relocate(action, lineDelta, firstLine, columnDelta));
+            }
+            return copy;
+        } else if (node instanceof SMSL_Ast.ImportDecl) {
+            return new SMSL_Ast.ImportDecl(line, column, ((SMSL_Ast.ImportDecl) node).path);
+        } else {
+            SMSL_Ast.ActionStmt action = (SMSL_Ast.ActionStmt) node;
+            return new SMSL_Ast.ActionStmt(line, column, action.name, action.id);
+        }
+    }
+
+    // 64-bit FNV-1a over the block text
+    private static long hash(char[] chars, int start, int end) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            h ^= chars[i];
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // Recompiles the file every time it, or a module it imports, is saved, until
+    // interrupted. The modules are looked up again after every compile, so an
+    // import added or fixed later is watched too.
+    public static void watch(Path file, int maxErrors, int parallelism, SMSL_Reporter reporter) {
+        SMSL_IncrementalCompiler incremental = new SMSL_IncrementalCompiler(maxErrors, parallelism);
+        Path absolute = file.toAbsolutePath().normalize();
+        Set<Path> files = new HashSet<>();
+        Set<Path> directories = new HashSet<>();
+
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            watchFiles(watcher, absolute, Collections.emptyList(), files, directories);
+            reporter.message(SMSL_Reporter.Level.INFO, "Watching " + file + " (Ctrl+C to stop)");
+            recompile(incremental, absolute, reporter);
+            watchFiles(watcher, absolute, incremental.moduleFiles(), files, directories);
+
+            while (true) {
+                WatchKey key = watcher.take();
+                Path directory = (Path) key.watchable();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context instanceof Path && affects(directory.resolve((Path) context), files)) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    // Editors often write a file in several steps; let them finish
+                    WatchKey more;
+                    while ((more = watcher.poll(20, TimeUnit.MILLISECONDS)) != null) {
+                        more.pollEvents();
+                        more.reset();
+                    }
+                    recompile(incremental, absolute, reporter);
+                    watchFiles(watcher, absolute, incremental.moduleFiles(), files, directories);
+                }
+            }
+        } catch (IOException e) {
+            reporter.message(SMSL_Reporter.Level.ERROR, "Error watching file '" + file + "'!");
+            reporter.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The spec and its modules become the watched files; directories are
+    // registered once, and a missing one is tried again after the next compile
+    private static void watchFiles(WatchService watcher, Path spec, List<Path> modules, Set<Path> files,
+                                   Set<Path> directories) throws IOException {
+        files.clear();
+        files.add(spec);
+        files.addAll(modules);
+        for (Path watched : files) {
+            Path directory = watched.getParent();
+            if (!directories.contains(directory) && Files.isDirectory(directory)) {
+                directory.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+                directories.add(directory);
+            }
+        }
+    }
+
+    // The path is a watched file, or a directory one of them is in, e.g. one just created
+    private static boolean affects(Path path, Set<Path> files) {
+        for (Path file : files) {
+            if (file.startsWith(path)) return true;
+        }
+        return false;
+    }
+
+    private static void recompile(SMSL_IncrementalCompiler incremental, Path file, SMSL_Reporter reporter) {
+        long startTime = System.nanoTime();
+        SMSL_CompilationResult result;
+        try {
+            result = incremental.compile(SMSL_Source.fromFile(file));
+        } catch (IOException e) {
+            reporter.message(SMSL_Reporter.Level.ERROR, "Error reading file '" + file + "'!");
+            reporter.flush();
+            return;
+        }
+        double elapsedMillis = (System.nanoTime() - startTime) / 1e6;
+        reporter.watchResult(result, elapsedMillis, incremental.reusedBlocks(), incremental.compiledBlocks());
+        reporter.flush();
+    }
+}
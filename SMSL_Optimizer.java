@@ -0,0 +1,480 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Pass manager for the IR optimizer. Runs each pass in order and records how
+// long it took and how much it shrank the code. Every pass builds a new IR in
+// time linear in the code size, except minimization, which is O(m log n).
+public class SMSL_Optimizer {
+
+    public interface Pass {
+        String name();
+
+        SMSL_IR run(SMSL_IR code);
+    }
+
+    public static final class PassResult {
+        public final String name;
+        public final long nanos;
+        public final int instructionsBefore;
+        public final int instructionsAfter;
+        public final int statesBefore;
+        public final int statesAfter;
+
+        PassResult(String name, long nanos, int instructionsBefore, int instructionsAfter,
+                   int statesBefore, int statesAfter) {
+            this.name = name;
+            this.nanos = nanos;
+            this.instructionsBefore = instructionsBefore;
+            this.instructionsAfter = instructionsAfter;
+            this.statesBefore = statesBefore;
+            this.statesAfter = statesAfter;
+        }
+    }
+
+    private final List<Pass> passes;
+    private List<PassResult> results = Collections.emptyList();
+
+    public SMSL_Optimizer() {
+        this(defaultPasses());
+    }
+
+    public SMSL_Optimizer(List<Pass> passes) {
+        this.passes = passes;
+    }
+
+    public static List<Pass> defaultPasses() {
+        return List.of(new DuplicateElimination(), new DeadTransitionElimination(),
+                new UnreachableStateElimination(), new StateMinimization());
+    }
+
+    public SMSL_IR optimize(SMSL_IR code) {
+        List<PassResult> results = new ArrayList<>(passes.size());
+        int states = countStates(code);
+        for (Pass pass : passes) {
+            long start = System.nanoTime();
+            SMSL_IR optimized = pass.run(code);
+            long nanos = System.nanoTime() - start;
+            int statesAfter = countStates(optimized);
+            results.add(new PassResult(pass.name(), nanos, code.size(), optimized.size(), states, statesAfter));
+            code = optimized;
+            states = statesAfter;
+        }
+        this.results = Collections.unmodifiableList(results);
+        return code;
+    }
+
+    // Per-pass results of the last optimize() call
+    public List<PassResult> results() {
+        return results;
+    }
+
+    static int countStates(SMSL_IR code) {
+        BitSet states = new BitSet(code.symbols().size(SMSL_SymbolTable.STATE));
+        for (int i = 0; i < code.size(); i++) {
+            if (code.source(i) != SMSL_IR.NONE) states.set(code.source(i));
+        }
+        return states.cardinality();
+    }
+
+    // Open-addressing table size for n entries at a load of at most 0.5
+    private static int tableSize(int n) {
+        return Integer.highestOneBit(Math.max(1, n)) * 4;
+    }
+
+    // Removes repeated code: a state action listed twice in the same state, an
+    // action listed twice in the same transition, and a transition identical to an
+    // earlier one, together with its actions
+    static final class DuplicateElimination implements Pass {
+        public String name() {
+            return "duplicate-elimination";
+        }
+
+        public SMSL_IR run(SMSL_IR code) {
+            SMSL_IR.Builder optimized = new SMSL_IR.Builder(code.symbols(), code.size());
+            int[] transitions = new int[tableSize(code.size())]; // Instruction index + 1, 0 when empty
+            int mask = transitions.length - 1;
+            LongSet stateActions = new LongSet(code.size());
+            int[] seenInTransition = new int[code.symbols().size(SMSL_SymbolTable.ACTION)]; // Transition index + 1
+            int transition = -1;
+            boolean duplicate = false;
+            for (int i = 0; i < code.size(); i++) {
+                if (code.opcode(i) == SMSL_IR.Opcode.TRANSITION) {
+                    transition = i;
+                    int slot = code.hashInstruction(i) & mask;
+                    duplicate = false;
+                    while (transitions[slot] != 0) {
+                        if (code.sameInstruction(transitions[slot] - 1, code, i)) {
+                            duplicate = true;
+                            break;
+                        }
+                        slot = (slot + 1) & mask;
+                    }
+                    if (duplicate) continue;
+                    transitions[slot] = i + 1;
+                } else if (code.arg2(i) == SMSL_IR.NONE) {
+                    duplicate = false;
+                    if (!stateActions.add(((long) code.source(i) << 32) | code.arg1(i))) continue;
+                } else {
+                    // Actions of a transition directly follow it
+                    if (duplicate || seenInTransition[code.arg1(i)] == transition + 1) continue;
+                    seenInTransition[code.arg1(i)] = transition + 1;
+                }
+                optimized.add(code, i);
+            }
+            return optimized.build();
+        }
+    }
+
+    // Removes transitions that can never fire: ones without an event, and ones
+    // whose event is already handled by an earlier transition of the same state
+    // (or, for top-level transitions, an earlier top-level one). Their actions go
+    // with them.
+    static final class DeadTransitionElimination implements Pass {
+        public String name() {
+            return "dead-transitions";
+        }
+
+        public SMSL_IR run(SMSL_IR code) {
+            SMSL_IR.Builder optimized = new SMSL_IR.Builder(code.symbols(), code.size());
+            LongSet handled = new LongSet(code.size());
+            boolean dead = false;
+            for (int i = 0; i < code.size(); i++) {
+                if (code.opcode(i) == SMSL_IR.Opcode.TRANSITION) {
+                    int event = code.arg2(i);
+                    long key = ((long) code.source(i) << 32) | (event & 0xFFFFFFFFL);
+                    dead = event == SMSL_IR.NONE || !handled.add(key);
+                    if (dead) continue;
+                } else if (code.arg2(i) == SMSL_IR.NONE) {
+                    dead = false; // A state action ends the previous transition's actions
+                } else if (dead) {
+                    continue;
+                }
+                optimized.add(code, i);
+            }
+            return optimized.build();
+        }
+    }
+
+    // Removes states the start state can't reach. Top-level transitions fire from
+    // any state, so their targets are reachable as soon as the start state is.
+    static final class UnreachableStateElimination implements Pass {
+        public String name() {
+            return "unreachable-states";
+        }
+
+        public SMSL_IR run(SMSL_IR code) {
+            int start = code.startState();
+            if (start == SMSL_IR.NONE) return code;
+            int states = code.symbols().size(SMSL_SymbolTable.STATE);
+
+            // Successors of each state, in compressed sparse rows
+            int[] offsets = new int[states + 1];
+            for (int i = 0; i < code.size(); i++) {
+                if (code.opcode(i) == SMSL_IR.Opcode.TRANSITION && code.source(i) != SMSL_IR.NONE) {
+                    offsets[code.source(i) + 1]++;
+                }
+            }
+            for (int s = 0; s < states; s++) {
+                offsets[s + 1] += offsets[s];
+            }
+            int[] successors = new int[offsets[states]];
+            int[] fill = Arrays.copyOf(offsets, states);
+
+            BitSet reachable = new BitSet(states);
+            int[] queue = new int[states];
+            int tail = 0;
+            reachable.set(start);
+            queue[tail++] = start;
+            for (int i = 0; i < code.size(); i++) {
+                if (code.opcode(i) != SMSL_IR.Opcode.TRANSITION) continue;
+                int target = code.result(i);
+                if (code.source(i) != SMSL_IR.NONE) {
+                    successors[fill[code.source(i)]++] = target;
+                } else if (!reachable.get(target)) {
+                    reachable.set(target);
+                    queue[tail++] = target;
+                }
+            }
+
+            for (int head = 0; head < tail; head++) {
+                int state = queue[head];
+                for (int k = offsets[state]; k < offsets[state + 1]; k++) {
+                    if (!reachable.get(successors[k])) {
+                        reachable.set(successors[k]);
+                        queue[tail++] = successors[k];
+                    }
+                }
+            }
+
+            SMSL_IR.Builder optimized = new SMSL_IR.Builder(code.symbols(), code.size());
+            for (int i = 0; i < code.size(); i++) {
+                if (code.source(i) == SMSL_IR.NONE || reachable.get(code.source(i))) {
+                    optimized.add(code, i);
+                }
+            }
+            return optimized.build();
+        }
+    }
+
+    // Merges equivalent states with Hopcroft's partition refinement. States start
+    // in the same block when their instructions match apart from targets and
+    // transition names, so they run the same actions and handle the same events;
+    // blocks are then split until every event leads each member into the same
+    // block. Each block keeps its first declared state, and transitions into the
+    // others are redirected to it. Top-level transitions are the same for every
+    // state and don't take part.
+    static final class StateMinimization implements Pass {
+        public String name() {
+            return "minimize-states";
+        }
+
+        public SMSL_IR run(SMSL_IR code) {
+            SMSL_SymbolTable symbols = code.symbols();
+
+            // Dense indexes for the states with instructions, in declaration order
+            int[] index = new int[symbols.size(SMSL_SymbolTable.STATE)];
+            Arrays.fill(index, -1);
+            int[] stateOf = new int[index.length];
+            int n = 0;
+            int previous = SMSL_IR.NONE;
+            for (int i = 0; i < code.size(); i++) {
+                int source = code.source(i);
+                if (source == previous) continue;
+                previous = source;
+                if (source == SMSL_IR.NONE) continue;
+                if (index[source] >= 0) return code; // Not contiguous; only after a duplicate declaration
+                index[source] = n;
+                stateOf[n++] = source;
+            }
+            if (n < 2) return code;
+
+            // Initial blocks by signature, and the transitions between states
+            int[] blockOf = new int[n];
+            Map<Signature, Integer> blocks = new HashMap<>();
+            int[] eventIndex = new int[symbols.size(SMSL_SymbolTable.EVENT)];
+            Arrays.fill(eventIndex, -1);
+            int events = 0;
+            int edges = 0;
+            int[] edgeSource = new int[code.size()];
+            int[] edgeEvent = new int[code.size()];
+            int[] edgeTarget = new int[code.size()];
+            int[] signature = new int[16];
+            for (int i = 0; i < code.size(); ) {
+                int source = code.source(i);
+                if (source == SMSL_IR.NONE) {
+                    i++;
+                    continue;
+                }
+                int length = 0;
+                for (; i < code.size() && code.source(i) == source; i++) {
+                    if (length + 3 > signature.length) signature = Arrays.copyOf(signature, signature.length * 2);
+                    if (code.opcode(i) == SMSL_IR.Opcode.ACTION) {
+                        signature[length++] = 0;
+                        signature[length++] = code.arg1(i);
+                        signature[length++] = code.arg2(i) == SMSL_IR.NONE ? 0 : 1;
+                        continue;
+                    }
+                    signature[length++] = 1;
+                    signature[length++] = code.arg2(i);
+                    int target = index[code.result(i)];
+                    if (target < 0) return code; // Target without instructions; semantic analysis rejects these
+                    int event = code.arg2(i);
+                    if (eventIndex[event] < 0) eventIndex[event] = events++;
+                    edgeSource[edges] = index[source];
+                    edgeEvent[edges] = eventIndex[event];
+                    edgeTarget[edges++] = target;
+                }
+                Signature key = new Signature(Arrays.copyOf(signature, length));
+                Integer block = blocks.get(key);
+                if (block == null) {
+                    block = blocks.size();
+                    blocks.put(key, block);
+                }
+                blockOf[index[source]] = block;
+            }
+            int blockCount = blocks.size();
+            if (blockCount == n) return code; // Every state is already distinct
+
+            // Incoming transitions of each state, in compressed sparse rows
+            int[] inOffsets = new int[n + 1];
+            for (int k = 0; k < edges; k++) inOffsets[edgeTarget[k] + 1]++;
+            for (int s = 0; s < n; s++) inOffsets[s + 1] += inOffsets[s];
+            int[] inSource = new int[edges];
+            int[] inEvent = new int[edges];
+            int[] fill = Arrays.copyOf(inOffsets, n);
+            for (int k = 0; k < edges; k++) {
+                int slot = fill[edgeTarget[k]]++;
+                inSource[slot] = edgeSource[k];
+                inEvent[slot] = edgeEvent[k];
+            }
+
+            // Partition: the states of block b are elements[first[b] .. end[b])
+            int[] elements = new int[n];
+            int[] location = new int[n];
+            int[] first = new int[n];
+            int[] end = new int[n];
+            int[] marked = new int[n];
+            for (int s = 0; s < n; s++) end[blockOf[s]]++;
+            for (int b = 1; b < blockCount; b++) end[b] += end[b - 1];
+            for (int b = 0; b < blockCount; b++) first[b] = b == 0 ? 0 : end[b - 1];
+            int[] next = Arrays.copyOf(first, blockCount);
+            for (int s = 0; s < n; s++) {
+                location[s] = next[blockOf[s]]++;
+                elements[location[s]] = s;
+            }
+
+            int[] worklist = new int[n];
+            boolean[] pending = new boolean[n];
+            int work = 0;
+            for (int b = 0; b < blockCount; b++) {
+                worklist[work++] = b;
+                pending[b] = true;
+            }
+
+            // Predecessors of the splitter, bucketed by event
+            int[] bucketHead = new int[events];
+            Arrays.fill(bucketHead, -1);
+            int[] bucketNext = new int[edges];
+            int[] bucketState = new int[edges];
+            int[] touchedEvents = new int[events];
+            int[] touchedBlocks = new int[n];
+
+            while (work > 0) {
+                int splitter = worklist[--work];
+                pending[splitter] = false;
+                int pairs = 0;
+                int touchedEventCount = 0;
+                for (int k = first[splitter]; k < end[splitter]; k++) {
+                    int target = elements[k];
+                    for (int j = inOffsets[target]; j < inOffsets[target + 1]; j++) {
+                        int event = inEvent[j];
+                        if (bucketHead[event] < 0) touchedEvents[touchedEventCount++] = event;
+                        bucketState[pairs] = inSource[j];
+                        bucketNext[pairs] = bucketHead[event];
+                        bucketHead[event] = pairs++;
+                    }
+                }
+
+                for (int e = 0; e < touchedEventCount; e++) {
+                    int event = touchedEvents[e];
+                    int touchedBlockCount = 0;
+                    for (int p = bucketHead[event]; p >= 0; p = bucketNext[p]) {
+                        int state = bucketState[p];
+                        int block = blockOf[state];
+                        int boundary = first[block] + marked[block];
+                        if (location[state] < boundary) continue; // Already marked
+                        int other = elements[boundary];
+                        elements[location[state]] = other;
+                        location[other] = location[state];
+                        elements[boundary] = state;
+                        location[state] = boundary;
+                        if (marked[block]++ == 0) touchedBlocks[touchedBlockCount++] = block;
+                    }
+                    bucketHead[event] = -1;
+
+                    // Split each touched block into its marked and unmarked states
+                    for (int t = 0; t < touchedBlockCount; t++) {
+                        int block = touchedBlocks[t];
+                        int count = marked[block];
+                        marked[block] = 0;
+                        if (count == end[block] - first[block]) continue;
+                        int split = blockCount++;
+                        first[split] = first[block];
+                        end[split] = first[block] + count;
+                        first[block] = end[split];
+                        for (int k = first[split]; k < end[split]; k++) blockOf[elements[k]] = split;
+                        if (pending[block] || count <= end[block] - first[block]) {
+                            worklist[work++] = split;
+                            pending[split] = true;
+                        } else {
+                            worklist[work++] = block;
+                            pending[block] = true;
+                        }
+                    }
+                }
+            }
+            if (blockCount == n) return code;
+
+            // The first declared state of each block represents it
+            int[] representative = new int[blockCount];
+            Arrays.fill(representative, -1);
+            for (int s = 0; s < n; s++) {
+                if (representative[blockOf[s]] < 0) representative[blockOf[s]] = stateOf[s];
+            }
+
+            SMSL_IR.Builder optimized = new SMSL_IR.Builder(symbols, code.size());
+            for (int i = 0; i < code.size(); i++) {
+                int source = code.source(i);
+                if (source != SMSL_IR.NONE && representative[blockOf[index[source]]] != source) continue;
+                if (code.opcode(i) == SMSL_IR.Opcode.TRANSITION && index[code.result(i)] >= 0) {
+                    int target = representative[blockOf[index[code.result(i)]]];
+                    optimized.add(SMSL_IR.Opcode.TRANSITION, code.arg1(i), code.arg2(i), target, source);
+                } else {
+                    optimized.add(code, i);
+                }
+            }
+            return optimized.build();
+        }
+    }
+
+    // A state's instructions with targets and transition names left out
+    private static final class Signature {
+        final int[] values;
+        final int hash;
+
+        Signature(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Signature && Arrays.equals(values, ((Signature) other).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // Open-addressing set of longs; Long.MIN_VALUE marks an empty slot
+    private static final class LongSet {
+        private long[] keys;
+        private int size;
+
+        LongSet(int expected) {
+            keys = new long[tableSize(expected)];
+            Arrays.fill(keys, Long.MIN_VALUE);
+        }
+
+        // Returns false if the key was already present
+        boolean add(long key) {
+            int mask = keys.length - 1;
+            int h = (int) (key ^ (key >>> 32)) * 0x9E3779B1;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (keys[slot] != Long.MIN_VALUE) {
+                if (keys[slot] == key) return false;
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            if (++size * 2 > keys.length) grow();
+            return true;
+        }
+
+        private void grow() {
+            long[] old = keys;
+            keys = new long[old.length * 2];
+            Arrays.fill(keys, Long.MIN_VALUE);
+            size = 0;
+            for (long key : old) {
+                if (key != Long.MIN_VALUE) add(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Runs the data-parallel parts of the front end on a fork-join pool: lexing a
+// large source in chunks, and the chunked semantic checks of
+// SMSL_Compiler.semanticAnalyzer. Inputs too small to be worth splitting are
+// processed on the calling thread. The pool is created on first use; its
+// threads are daemons, so an unused or idle front end never keeps the JVM alive.
+public class SMSL_ParallelFrontEnd {
+    static final int MIN_CHUNK_CHARS = 1 << 18;
+    static final int MIN_CHUNK_ITEMS = 4096; // Top-level items per semantic chunk
+    private static final int CHUNKS_PER_THREAD = 4; // Evens out chunks that take longer than others
+
+    private final int parallelism;
+    private ForkJoinPool pool;
+
+    // One lexed chunk: its tokens, with lines counted from 1, and how many lines it spans
+    private static final class Chunk {
+        final SMSL_TokenBuffer tokens;
+        final int lines;
+
+        Chunk(SMSL_TokenBuffer tokens, int lines) {
+            this.tokens = tokens;
+            this.lines = lines;
+        }
+    }
+
+    public SMSL_ParallelFrontEnd(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    // How many chunks to cut size units of work into, each at least minChunk
+    public int chunks(int size, int minChunk) {
+        return (int) Math.max(1, Math.min((long) parallelism * CHUNKS_PER_THREAD, size / minChunk));
+    }
+
+    // Lexes source[0, length) with the DFA scanner. Any line boundary is a safe
+    // split point: comments end with their line and strings must close on it.
+    // Each chunk is lexed from line 1 into its own buffer; the buffers are then
+    // appended in order, shifted by the lines of the chunks before them.
+    public SMSL_TokenBuffer lex(char[] source, int length) {
+        int count = chunks(length, MIN_CHUNK_CHARS);
+        int[] bounds = new int[count + 1];
+        for (int i = 1; i < count; i++) {
+            bounds[i] = nextLineStart(source, Math.max(bounds[i - 1], (int) ((long) length * i / count)), length);
+        }
+        bounds[count] = length;
+
+        List<Callable<Chunk>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int from = bounds[i];
+            int to = bounds[i + 1];
+            tasks.add(() -> {
+                SMSL_TokenBuffer tokens = new SMSL_TokenBuffer(source, (to - from) / 4);
+                SMSL_Scanner scanner = new SMSL_Scanner(source, from, to, 1);
+                int type;
+                while ((type = scanner.next()) != SMSL_Scanner.EOF) {
+                    tokens.add(type, scanner.tokenLine(), scanner.tokenStart(), scanner.tokenEnd());
+                }
+                return new Chunk(tokens, scanner.tokenLine() - 1); // At EOF, the line after the chunk's last
+            });
+        }
+        List<Chunk> chunks = invokeAll(tasks);
+
+        int size = 0;
+        for (Chunk chunk : chunks) size += chunk.tokens.size();
+        SMSL_TokenBuffer tokens = new SMSL_TokenBuffer(source, size);
+        int lineDelta = 0;
+        for (Chunk chunk : chunks) {
+            tokens.addAll(chunk.tokens, lineDelta);
+            lineDelta += chunk.lines;
+        }
+        return tokens;
+    }
+
+    // Offset just past the line break at or after offset, treating "\r\n" as one
+    private static int nextLineStart(char[] source, int offset, int length) {
+        while (offset < length) {
+            char c = source[offset++];
+            if (c == '\n') return offset;
+            if (c == '\r') {
+                if (offset < length && source[offset] == '\n') offset++;
+                return offset;
+            }
+        }
+        return length;
+    }
+
+    // Runs the tasks, in parallel if there are several, and returns their results in order
+    public <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (tasks.size() == 1) {
+            try {
+                results.add(tasks.get(0).call());
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("Front-end task failed", e);
+            }
+            return results;
+        }
+        for (Future<T> future : pool().invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw new IllegalStateException("Front-end task failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted", e);
+            }
+        }
+        return results;
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if (pool == null) pool = new ForkJoinPool(parallelism);
+        return pool;
+    }
+}
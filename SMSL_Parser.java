@@ -0,0 +1,268 @@
+// Recursive-descent parser over the token buffer. Builds the AST in one pass.
+//
+//   program    := ("start" ";")? (import | state | transition)* ("end" ";")?
+//   import     := "import" STRING ";"
+//   state      := "state" ID "{" (action | transition)* "}"
+//   transition := "transition" ID ":" "event" ID? "->" ID "{" action* "}"
+//   action     := "action" ID ";"
+//
+// A missing event name is accepted here and reported by semantic analysis.
+// "import" is a keyword only at the top level, so it still works as a name.
+//
+// On a syntax error the parser records it and skips ahead to a point it can
+// continue from: past the next ';', past a '}' closing a '{' it skipped, or up to
+// a '}' or keyword that belongs to the enclosing construct. The rest of the file
+// is still parsed, so one run reports every independent error. Parsing stops
+// early once the collector's error limit is reached.
+public class SMSL_Parser {
+    // Keywords that start a construct at each level, where recovery can resume
+    private static final int TOP_LEVEL = 1 << SMSL_Scanner.STATE | 1 << SMSL_Scanner.TRANSITION
+            | 1 << SMSL_Scanner.START | 1 << SMSL_Scanner.END;
+    private static final int BLOCK = 1 << SMSL_Scanner.STATE | 1 << SMSL_Scanner.TRANSITION | 1 << SMSL_Scanner.ACTION;
+
+    private final SMSL_TokenBuffer tokens;
+    private final SMSL_Diagnostic.Collector diagnostics;
+    private final SMSL_SymbolTable symbols;
+    private int pos;
+    private boolean endReported; // Unclosed blocks all end at the same place; report it once
+
+    // Thrown to unwind the parser to the nearest construct that can recover
+    private static class SyntaxError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxError() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Thrown once the error limit is reached, to stop parsing altogether
+    private static final class ErrorLimitReached extends SyntaxError {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public SMSL_Parser(SMSL_TokenBuffer tokens, SMSL_Diagnostic.Collector diagnostics) {
+        this(tokens, diagnostics, new SMSL_SymbolTable());
+    }
+
+    // Interns names into an existing symbol table, e.g. one shared by several parses
+    public SMSL_Parser(SMSL_TokenBuffer tokens, SMSL_Diagnostic.Collector diagnostics, SMSL_SymbolTable symbols) {
+        this.tokens = tokens;
+        this.diagnostics = diagnostics;
+        this.symbols = symbols;
+    }
+
+    public SMSL_Ast.Program parseProgram() {
+        SMSL_Ast.Program program = new SMSL_Ast.Program(symbols);
+        try {
+            while (pos < tokens.size()) {
+                try {
+                    int type = tokens.type(pos);
+                    if (type == SMSL_Scanner.START || type == SMSL_Scanner.END) {
+                        pos++;
+                        expectSymbol(';', "after '" + tokens.lexeme(pos - 1) + "'");
+                    } else if (type == SMSL_Scanner.STATE) {
+                        program.items.add(parseState());
+                    } else if (type == SMSL_Scanner.TRANSITION) {
+                        program.items.add(parseTransition());
+                    } else if (type == SMSL_Scanner.IDENTIFIER && tokens.lexemeEquals(pos, "import")) {
+                        program.imports.add(parseImport());
+                    } else {
+                        throw error("Expected 'state' or 'transition'");
+                    }
+                } catch (ErrorLimitReached e) {
+                    throw e;
+                } catch (SyntaxError e) {
+                    if (recover(TOP_LEVEL)) {
+                        pos++; // A stray '}' at the top level; already reported
+                    }
+                }
+            }
+        } catch (ErrorLimitReached e) {
+            // The collector has a note saying so
+        }
+        return program;
+    }
+
+    private SMSL_Ast.ImportDecl parseImport() {
+        int line = tokens.line(pos);
+        int column = tokens.column(pos++);
+        if (peekType() != SMSL_Scanner.STRING) {
+            throw error("Expected module path after 'import'");
+        }
+        String path = tokens.lexeme(pos++);
+        expectSymbol(';', "after module path");
+        return new SMSL_Ast.ImportDecl(line, column, path.substring(1, path.length() - 1));
+    }
+
+    private SMSL_Ast.StateDecl parseState() {
+        int line = tokens.line(pos);
+        int column = tokens.column(pos++);
+        int id = expectIdentifier(SMSL_SymbolTable.STATE, "state name");
+        String name = symbols.name(SMSL_SymbolTable.STATE, id);
+
+        // From here on the state is declared, whatever errors its body has
+        SMSL_Ast.StateDecl state = new SMSL_Ast.StateDecl(line, column, name, id);
+        try {
+            expectSymbol('{', "after state name");
+        } catch (ErrorLimitReached e) {
+            throw e;
+        } catch (SyntaxError e) {
+            state.recovered = true;
+            recover(BLOCK);
+        }
+        while (true) {
+            int type = peekType();
+            if (type == SMSL_Scanner.EOF || type == SMSL_Scanner.STATE) {
+                error("Expected '}'"); // Recorded; the state ends here
+                return state;
+            }
+            if (tokens.isSymbol(pos, '}')) {
+                pos++;
+                return state;
+            }
+            try {
+                if (type == SMSL_Scanner.ACTION) {
+                    state.body.add(parseAction());
+                } else if (type == SMSL_Scanner.TRANSITION) {
+                    state.body.add(parseTransition());
+                } else {
+                    throw error("Expected 'action', 'transition' or '}' in state '" + name + "'");
+                }
+            } catch (ErrorLimitReached e) {
+                throw e;
+            } catch (SyntaxError e) {
+                state.recovered = true;
+                recover(BLOCK);
+            }
+        }
+    }
+
+    private SMSL_Ast.TransitionDecl parseTransition() {
+        int line = tokens.line(pos);
+        int column = tokens.column(pos++);
+        int id = expectIdentifier(SMSL_SymbolTable.TRANSITION, "transition name");
+        String name = symbols.name(SMSL_SymbolTable.TRANSITION, id);
+        expectSymbol(':', "after transition name");
+        if (peekType() != SMSL_Scanner.EVENT) {
+            throw error("Expected 'event'");
+        }
+        pos++;
+        int eventId = -1;
+        if (peekType() == SMSL_Scanner.IDENTIFIER) {
+            eventId = expectIdentifier(SMSL_SymbolTable.EVENT, "event name");
+        }
+        if (peekType() != SMSL_Scanner.ARROW) {
+            throw error("Expected '->'");
+        }
+        pos++;
+        int targetId = expectIdentifier(SMSL_SymbolTable.STATE, "target state");
+        expectSymbol('{', "after target state");
+
+        String event = eventId < 0 ? null : symbols.name(SMSL_SymbolTable.EVENT, eventId);
+        String target = symbols.name(SMSL_SymbolTable.STATE, targetId);
+        SMSL_Ast.TransitionDecl transition =
+                new SMSL_Ast.TransitionDecl(line, column, name, id, event, eventId, target, targetId);
+        while (true) {
+            int type = peekType();
+            if (type == SMSL_Scanner.EOF || type == SMSL_Scanner.STATE || type == SMSL_Scanner.TRANSITION) {
+                error("Expected '}'"); // Recorded; the transition ends here
+                return transition;
+            }
+            if (tokens.isSymbol(pos, '}')) {
+                pos++;
+                return transition;
+            }
+            try {
+                if (type != SMSL_Scanner.ACTION) {
+                    throw error("Expected 'action' or '}' in transition '" + name + "'");
+                }
+                transition.actions.add(parseAction());
+            } catch (ErrorLimitReached e) {
+                throw e;
+            } catch (SyntaxError e) {
+                recover(BLOCK);
+            }
+        }
+    }
+
+    private SMSL_Ast.ActionStmt parseAction() {
+        int line = tokens.line(pos);
+        int column = tokens.column(pos++);
+        int id = expectIdentifier(SMSL_SymbolTable.ACTION, "action name");
+        expectSymbol(';', "after action name");
+        return new SMSL_Ast.ActionStmt(line, column, symbols.name(SMSL_SymbolTable.ACTION, id), id);
+    }
+
+    // Skips the rest of a broken construct. Stops after a ';' or after a '}' that
+    // closes a '{' skipped here; stops before a '}' of the enclosing block, one of
+    // the level's keywords (1 << token type), or the end of input. The caller's
+    // loop accepts every token it stops before, so parsing always makes progress.
+    // Returns true if it stopped before a '}'.
+    private boolean recover(int keywords) {
+        int depth = 0;
+        while (pos < tokens.size()) {
+            int type = tokens.type(pos);
+            if (type == SMSL_Scanner.STATE) return false; // States never nest
+            if (depth == 0 && (keywords & 1 << type) != 0) return false;
+            if (tokens.isSymbol(pos, '{')) {
+                depth++;
+            } else if (tokens.isSymbol(pos, '}')) {
+                if (depth == 0) return true;
+                if (--depth == 0) {
+                    pos++;
+                    return false;
+                }
+            } else if (depth == 0 && tokens.isSymbol(pos, ';')) {
+                pos++;
+                return false;
+            }
+            pos++;
+        }
+        return false;
+    }
+
+    private int peekType() {
+        return pos < tokens.size() ? tokens.type(pos) : SMSL_Scanner.EOF;
+    }
+
+    // Consumes an identifier and returns its symbol ID
+    private int expectIdentifier(int kind, String what) {
+        if (peekType() != SMSL_Scanner.IDENTIFIER) {
+            throw error("Expected " + what);
+        }
+        int id = symbols.intern(kind, tokens.source(), tokens.start(pos), tokens.end(pos));
+        pos++;
+        return id;
+    }
+
+    private void expectSymbol(char symbol, String where) {
+        if (pos >= tokens.size() || !tokens.isSymbol(pos, symbol)) {
+            throw error("Expected '" + symbol + "' " + where);
+        }
+        pos++;
+    }
+
+    // Records a syntax error at the current token; the caller throws the result
+    // to unwind, or ignores it to carry on
+    private SyntaxError error(String message) {
+        String found;
+        int line;
+        int column;
+        if (pos < tokens.size()) {
+            found = "'" + tokens.lexeme(pos) + "'";
+            line = tokens.line(pos);
+            column = tokens.column(pos);
+        } else {
+            if (endReported) return new SyntaxError();
+            endReported = true;
+            found = "end of input";
+            line = tokens.isEmpty() ? 1 : tokens.line(tokens.size() - 1);
+            column = tokens.isEmpty() ? 1 : tokens.column(tokens.size() - 1) + tokens.length(tokens.size() - 1);
+        }
+        if (!diagnostics.add(SMSL_Diagnostic.error(SMSL_Diagnostic.Phase.SYNTAX, SMSL_Diagnostic.UNEXPECTED_TOKEN,
+                line, column, message + ", found " + found))) {
+            throw new ErrorLimitReached();
+        }
+        return new SyntaxError();
+    }
+}
@@ -0,0 +1,451 @@
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+// The modules a spec imports, directly or through other modules, compiled and
+// linked into its code. Every file is a module with its own symbol table, so
+// modules compile independently of each other: the imports of the spec are
+// compiled in parallel on the front end's pool, then the modules those import,
+// wave by wave. A module's references to states it doesn't declare are resolved
+// at link time, against the modules it imports, directly or not. With a cache,
+// only modules whose text changed are compiled again.
+//
+// The linked program is the spec's code followed by each module's, in the
+// order they were found, with every name interned into one symbol table. The
+// spec's first state stays the start state, and top-level transitions of any
+// module fire from every state. A state may be declared by only one module.
+public class SMSL_Project {
+    private static final int PENDING = -1; // Node of a module being compiled
+    private static final int UNREADABLE = -2;
+
+    private final boolean useRegexLexer;
+    private final SMSL_ParallelFrontEnd frontEnd; // null to compile one module at a time
+    private final SMSL_CompileCache cache; // null to compile every module
+    private final Path workingDirectory; // Relative source names and module names are resolved against it
+
+    private String rootName = "<source>";
+    private final List<Module> modules = new ArrayList<>(); // In the order they were found
+    private final List<Path> files = new ArrayList<>(); // Every file imported, readable or not
+    private final List<SMSL_Diagnostic> diagnostics = new ArrayList<>();
+    private final Map<String, Integer> declarations = new HashMap<>(); // State name -> node of its first declaration
+    private final List<List<Integer>> dependencies = new ArrayList<>(); // Node 0 is the spec, node i module i - 1
+    private final Map<SMSL_Ast.Node, String> linkedNodes = new IdentityHashMap<>(); // Module of each rebuilt node
+
+    // A name and where it is written in its module
+    public static final class Name {
+        public final String text;
+        public final int line;
+        public final int column;
+
+        public Name(String text, int line, int column) {
+            this.text = text;
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    // One imported file, compiled on its own. Diagnostics have no module set.
+    public static final class Module {
+        public final String name; // Path shown in diagnostics, relative to the working directory if inside it
+        public final List<Name> imports; // Paths as written
+        public final List<Name> states; // First declaration of each state
+        public final List<Name> references; // First reference to each state the module doesn't declare
+        public final List<Name> transitions; // Each transition, in the order of its instruction in code
+        public final List<SMSL_Diagnostic> diagnostics;
+        public final SMSL_IR code; // Unoptimized; empty if the module has errors
+        public final boolean cached;
+
+        public Module(String name, List<Name> imports, List<Name> states, List<Name> references,
+                      List<Name> transitions, List<SMSL_Diagnostic> diagnostics, SMSL_IR code, boolean cached) {
+            this.name = name;
+            this.imports = imports;
+            this.states = states;
+            this.references = references;
+            this.transitions = transitions;
+            this.diagnostics = diagnostics;
+            this.code = code;
+            this.cached = cached;
+        }
+
+        static Module of(String name, SMSL_CompilationResult result) {
+            SMSL_Ast.Program program = result.program;
+            List<Name> imports = new ArrayList<>();
+            for (SMSL_Ast.ImportDecl decl : program.imports) {
+                imports.add(new Name(decl.path, decl.line, decl.column));
+            }
+
+            int stateCount = program.symbols.size(SMSL_SymbolTable.STATE);
+            BitSet declared = new BitSet(stateCount);
+            List<Name> states = new ArrayList<>();
+            for (SMSL_Ast.Node item : program.items) {
+                if (item instanceof SMSL_Ast.StateDecl && !declared.get(((SMSL_Ast.StateDecl) item).id)) {
+                    SMSL_Ast.StateDecl state = (SMSL_Ast.StateDecl) item;
+                    declared.set(state.id);
+                    states.add(new Name(state.name, state.line, state.column));
+                }
+            }
+            BitSet referenced = new BitSet(stateCount);
+            List<Name> references = new ArrayList<>();
+            for (SMSL_Ast.Node item : program.items) {
+                if (item instanceof SMSL_Ast.StateDecl) {
+                    for (SMSL_Ast.Node member : ((SMSL_Ast.StateDecl) item).body) {
+                        reference(member, declared, referenced, references);
+                    }
+                } else {
+                    reference(item, declared, referenced, references);
+                }
+            }
+            List<Name> transitions = new ArrayList<>();
+            for (SMSL_Ast.Node item : program.items) {
+                if (item instanceof SMSL_Ast.StateDecl) {
+                    for (SMSL_Ast.Node member : ((SMSL_Ast.StateDecl) item).body) transition(member, transitions);
+                } else {
+                    transition(item, transitions);
+                }
+            }
+            return new Module(name, imports, states, references, transitions, result.diagnostics,
+                    result.intermediateCode, false);
+        }
+
+        private static void transition(SMSL_Ast.Node node, List<Name> transitions) {
+            if (node instanceof SMSL_Ast.TransitionDecl) {
+                SMSL_Ast.TransitionDecl transition = (SMSL_Ast.TransitionDecl) node;
+                transitions.add(new Name(transition.name, transition.line, transition.column));
+            }
+        }
+
+        private static void reference(SMSL_Ast.Node node, BitSet declared, BitSet referenced, List<Name> references) {
+            if (!(node instanceof SMSL_Ast.TransitionDecl)) return;
+            SMSL_Ast.TransitionDecl transition = (SMSL_Ast.TransitionDecl) node;
+            if (declared.get(transition.targetId) || referenced.get(transition.targetId)) return;
+            referenced.set(transition.targetId);
+            references.add(new Name(transition.target, transition.line, transition.column));
+        }
+    }
+
+    // A module to load, and the import that asked for it
+    private static final class Request {
+        final Path path;
+        final int importer; // Node of the importing module
+        final Name site;
+
+        Request(Path path, int importer, Name site) {
+            this.path = path;
+            this.importer = importer;
+            this.site = site;
+        }
+    }
+
+    public SMSL_Project(boolean useRegexLexer, SMSL_ParallelFrontEnd frontEnd, SMSL_CompileCache cache) {
+        this(useRegexLexer, frontEnd, cache, Paths.get("").toAbsolutePath());
+    }
+
+    // workingDirectory stands in for the process's own, e.g. the client's in the daemon
+    public SMSL_Project(boolean useRegexLexer, SMSL_ParallelFrontEnd frontEnd, SMSL_CompileCache cache,
+                        Path workingDirectory) {
+        if (!workingDirectory.isAbsolute()) {
+            throw new IllegalArgumentException("Working directory must be absolute: " + workingDirectory);
+        }
+        this.useRegexLexer = useRegexLexer;
+        this.frontEnd = frontEnd;
+        this.cache = cache;
+        this.workingDirectory = workingDirectory.normalize();
+    }
+
+    // Loads and checks everything the program imports; sourceName locates the
+    // program's file, which relative imports are resolved against
+    public void load(String sourceName, SMSL_Ast.Program program) {
+        Path root = absolute(sourceName);
+        rootName = sourceName;
+        Map<Path, Integer> nodes = new HashMap<>();
+        nodes.put(root, 0);
+        dependencies.add(new ArrayList<>());
+
+        List<Request> wave = new ArrayList<>();
+        for (SMSL_Ast.ImportDecl decl : program.imports) {
+            wave.add(new Request(root.resolveSibling(decl.path).normalize(), 0,
+                    new Name(decl.path, decl.line, decl.column)));
+        }
+        while (!wave.isEmpty()) {
+            // Each file is compiled once, however many modules import it
+            List<Path> paths = new ArrayList<>();
+            List<Callable<Module>> tasks = new ArrayList<>();
+            for (Request request : wave) {
+                if (nodes.putIfAbsent(request.path, PENDING) == null) {
+                    paths.add(request.path);
+                    files.add(request.path);
+                    tasks.add(() -> compile(request.path));
+                }
+            }
+            List<Module> compiled = frontEnd == null ? run(tasks) : frontEnd.invokeAll(tasks);
+
+            List<Request> next = new ArrayList<>();
+            for (int i = 0; i < compiled.size(); i++) {
+                Module module = compiled.get(i);
+                if (module == null) {
+                    nodes.put(paths.get(i), UNREADABLE);
+                    continue;
+                }
+                modules.add(module);
+                dependencies.add(new ArrayList<>());
+                nodes.put(paths.get(i), modules.size());
+                for (Name site : module.imports) {
+                    next.add(new Request(paths.get(i).resolveSibling(site.text).normalize(), modules.size(), site));
+                }
+            }
+            for (Request request : wave) {
+                int node = nodes.get(request.path);
+                if (node == UNREADABLE) {
+                    diagnostics.add(error(request.importer, SMSL_Diagnostic.UNRESOLVED_IMPORT, request.site,
+                            "Unresolved Import: '" + request.site.text + "' (no such file)"));
+                } else if (!dependencies.get(request.importer).contains(node)) {
+                    dependencies.get(request.importer).add(node);
+                }
+            }
+            wave = next;
+        }
+
+        for (Module module : modules) {
+            for (SMSL_Diagnostic diagnostic : module.diagnostics) {
+                diagnostics.add(diagnostic.inModule(module.name));
+            }
+        }
+        checkDeclarations(program);
+        checkReferences();
+    }
+
+    private static List<Module> run(List<Callable<Module>> tasks) {
+        List<Module> results = new ArrayList<>(tasks.size());
+        for (Callable<Module> task : tasks) {
+            try {
+                results.add(task.call());
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("Module compile failed", e);
+            }
+        }
+        return results;
+    }
+
+    // The module's compiled form, from the cache if its text is unchanged; null
+    // if the file can't be read
+    private Module compile(Path path) {
+        String name = displayName(path);
+        SMSL_Source source;
+        try {
+            source = SMSL_Source.fromFile(path);
+        } catch (IOException e) {
+            return null;
+        }
+        String key = cache == null ? null : cache.moduleKey(source, useRegexLexer);
+        Module module = key == null ? null : cache.loadModule(key, name);
+        if (module != null) return module;
+
+        module = Module.of(name, new SMSL_Compiler(useRegexLexer, null).compileModule(source));
+        if (key != null) {
+            try {
+                cache.storeModule(key, module);
+            } catch (IOException e) {
+                // Compiled again next time
+            }
+        }
+        return module;
+    }
+
+    // A state declared by an earlier module, the spec first, can't be declared again
+    private void checkDeclarations(SMSL_Ast.Program program) {
+        BitSet declared = new BitSet();
+        for (SMSL_Ast.Node item : program.items) {
+            if (item instanceof SMSL_Ast.StateDecl && !declared.get(((SMSL_Ast.StateDecl) item).id)) {
+                declared.set(((SMSL_Ast.StateDecl) item).id);
+                declarations.put(((SMSL_Ast.StateDecl) item).name, 0);
+            }
+        }
+        for (int i = 0; i < modules.size(); i++) {
+            for (Name state : modules.get(i).states) {
+                Integer first = declarations.putIfAbsent(state.text, i + 1);
+                if (first != null) {
+                    diagnostics.add(error(i + 1, SMSL_Diagnostic.DUPLICATE_STATE, state,
+                            "Duplicate State Declaration: '" + state.text + "' (first declared in "
+                                    + nodeName(first) + ")"));
+                }
+            }
+        }
+    }
+
+    // A module sees the states of the modules it imports, directly or not
+    private void checkReferences() {
+        for (int i = 0; i < modules.size(); i++) {
+            Module module = modules.get(i);
+            if (module.references.isEmpty()) continue;
+            BitSet visible = reachable(i + 1);
+            for (Name reference : module.references) {
+                Integer declarer = declarations.get(reference.text);
+                if (declarer == null) {
+                    diagnostics.add(error(i + 1, SMSL_Diagnostic.UNDEFINED_STATE, reference,
+                            "Undefined State Reference: '" + reference.text + "'"));
+                } else if (!visible.get(declarer)) {
+                    diagnostics.add(error(i + 1, SMSL_Diagnostic.UNDEFINED_STATE, reference,
+                            "Undefined State Reference: '" + reference.text + "' (declared in "
+                                    + nodeName(declarer) + ", which isn't imported)"));
+                }
+            }
+        }
+    }
+
+    private BitSet reachable(int from) {
+        BitSet seen = new BitSet(dependencies.size());
+        int[] stack = new int[dependencies.size()];
+        int top = 0;
+        seen.set(from);
+        stack[top++] = from;
+        while (top > 0) {
+            for (int next : dependencies.get(stack[--top])) {
+                if (!seen.get(next)) {
+                    seen.set(next);
+                    stack[top++] = next;
+                }
+            }
+        }
+        return seen;
+    }
+
+    private SMSL_Diagnostic error(int node, String code, Name site, String message) {
+        SMSL_Diagnostic error = SMSL_Diagnostic.error(SMSL_Diagnostic.Phase.SEMANTIC, code, site.line, site.column,
+                message);
+        return node == 0 ? error : error.inModule(modules.get(node - 1).name);
+    }
+
+    private String nodeName(int node) {
+        return "'" + (node == 0 ? rootName : modules.get(node - 1).name) + "'";
+    }
+
+    public List<Module> modules() {
+        return Collections.unmodifiableList(modules);
+    }
+
+    // Absolute paths of the files the spec imports, directly or not, in the order
+    // they were found; an import that couldn't be read is included
+    public List<Path> files() {
+        return Collections.unmodifiableList(files);
+    }
+
+    // Every module's diagnostics and the cross-module errors, in no particular order
+    public List<SMSL_Diagnostic> diagnostics() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    // A module declares the state; the spec's own declarations aren't counted
+    public boolean declares(String state) {
+        Integer node = declarations.get(state);
+        return node != null && node > 0;
+    }
+
+    // The spec's code followed by every module's, over one symbol table. The
+    // spec's symbols keep their IDs; each module's are mapped by name.
+    public SMSL_IR link(SMSL_IR code) {
+        SMSL_SymbolTable symbols = new SMSL_SymbolTable();
+        int size = code.size();
+        for (Module module : modules) size += module.code.size();
+        for (int kind = 0; kind < SMSL_SymbolTable.KINDS; kind++) {
+            for (int id = 0; id < code.symbols().size(kind); id++) {
+                symbols.intern(kind, code.symbols().name(kind, id));
+            }
+        }
+        SMSL_IR.Builder linked = new SMSL_IR.Builder(symbols, size);
+        linked.addAll(code);
+
+        for (Module module : modules) {
+            SMSL_IR moduleCode = module.code;
+            int[][] ids = new int[SMSL_SymbolTable.KINDS][];
+            for (int kind = 0; kind < ids.length; kind++) {
+                ids[kind] = new int[moduleCode.symbols().size(kind)];
+                for (int id = 0; id < ids[kind].length; id++) {
+                    ids[kind][id] = symbols.intern(kind, moduleCode.symbols().name(kind, id));
+                }
+            }
+            for (int i = 0; i < moduleCode.size(); i++) {
+                int source = map(ids[SMSL_SymbolTable.STATE], moduleCode.source(i));
+                if (moduleCode.opcode(i) == SMSL_IR.Opcode.TRANSITION) {
+                    linked.transition(ids[SMSL_SymbolTable.TRANSITION][moduleCode.arg1(i)],
+                            map(ids[SMSL_SymbolTable.EVENT], moduleCode.arg2(i)),
+                            ids[SMSL_SymbolTable.STATE][moduleCode.result(i)], source);
+                } else {
+                    linked.action(ids[SMSL_SymbolTable.ACTION][moduleCode.arg1(i)],
+                            map(ids[SMSL_SymbolTable.TRANSITION], moduleCode.arg2(i)), source);
+                }
+            }
+        }
+        return linked.build();
+    }
+
+    // The linked code as one syntax tree, for SMSL_StateGraph: the spec's own
+    // items, then each module's states and transitions rebuilt from its code,
+    // at their place in the module's file. moduleOf() names a rebuilt node's file.
+    public SMSL_Ast.Program linkedProgram(SMSL_Ast.Program spec, SMSL_IR linked) {
+        SMSL_SymbolTable symbols = linked.symbols();
+        SMSL_Ast.Program program = new SMSL_Ast.Program(symbols);
+        program.items.addAll(spec.items); // The spec's symbols keep their IDs
+        int i = linked.size();
+        for (Module module : modules) i -= module.code.size();
+
+        for (Module module : modules) {
+            Map<String, Name> states = new HashMap<>();
+            for (Name state : module.states) states.put(state.text, state);
+            Iterator<Name> transitions = module.transitions.iterator();
+            SMSL_Ast.StateDecl state = null;
+            for (int end = i + module.code.size(); i < end; i++) {
+                int source = linked.source(i);
+                if (source == SMSL_IR.NONE) {
+                    state = null;
+                } else if (state == null || state.id != source) {
+                    Name name = states.get(symbols.name(SMSL_SymbolTable.STATE, source));
+                    state = new SMSL_Ast.StateDecl(name.line, name.column, name.text, source);
+                    program.items.add(state);
+                    linkedNodes.put(state, module.name);
+                }
+                if (linked.opcode(i) != SMSL_IR.Opcode.TRANSITION) continue;
+                Name site = transitions.next();
+                int event = linked.arg2(i);
+                SMSL_Ast.TransitionDecl transition = new SMSL_Ast.TransitionDecl(site.line, site.column, site.text,
+                        linked.arg1(i), event == SMSL_IR.NONE ? null : symbols.name(SMSL_SymbolTable.EVENT, event),
+                        event, symbols.name(SMSL_SymbolTable.STATE, linked.result(i)), linked.result(i));
+                (state == null ? program.items : state.body).add(transition);
+                linkedNodes.put(transition, module.name);
+            }
+        }
+        return program;
+    }
+
+    // The module a node of linkedProgram() was rebuilt from; null for the spec's own
+    public String moduleOf(SMSL_Ast.Node node) {
+        return linkedNodes.get(node);
+    }
+
+    private static int map(int[] ids, int id) {
+        return id == SMSL_IR.NONE ? SMSL_IR.NONE : ids[id];
+    }
+
+    private Path absolute(String sourceName) {
+        try {
+            return workingDirectory.resolve(sourceName).normalize();
+        } catch (InvalidPathException e) {
+            return workingDirectory.resolve("source"); // "<stdin>" where '<' isn't allowed
+        }
+    }
+
+    private String displayName(Path path) {
+        return path.startsWith(workingDirectory) ? workingDirectory.relativize(path).toString() : path.toString();
+    }
+}
@@ -0,0 +1,832 @@
+import java.io.BufferedWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Receives everything a compilation reports and renders it in one output mode:
+// pretty (the colour tables), quiet (diagnostics only) or NDJSON (one JSON
+// object per line, for tools). Output is collected in a 64 KiB buffer and written
+// to the stream in large chunks instead of one console write per line; call
+// flush() when a compilation is done.
+public abstract class SMSL_Reporter {
+    public enum Mode { PRETTY, QUIET, NDJSON }
+
+    public enum Level { INFO, WARNING, ERROR }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    protected final PrintWriter out;
+    protected final boolean color;
+    private final StreamWriter sink;
+    protected String sourceName = "<source>";
+
+    protected SMSL_Reporter(PrintStream stream, boolean color) {
+        this.sink = new StreamWriter(stream);
+        this.out = new PrintWriter(new BufferedWriter(sink, BUFFER_SIZE), false);
+        this.color = color;
+    }
+
+    public static SMSL_Reporter create(Mode mode, PrintStream stream, boolean color) {
+        switch (mode) {
+            case QUIET:
+                return new Quiet(stream, color);
+            case NDJSON:
+                return new Ndjson(stream);
+            default:
+                return new Pretty(stream, color);
+        }
+    }
+
+    // Colour only on a terminal, unless NO_COLOR is set
+    public static boolean colorByDefault() {
+        return System.console() != null && System.getenv("NO_COLOR") == null;
+    }
+
+    public void begin(String sourceName) {
+        this.sourceName = sourceName;
+    }
+
+    // Token table; token() is called for every token as the lexer finds it
+    public void tokensStart() {
+    }
+
+    public void token(SMSL_TokenBuffer tokens, int i) {
+    }
+
+    public void tokensEnd() {
+    }
+
+    // A lexical error as the lexer finds it; lexicalErrors() follows with all of them
+    public void lexicalError(SMSL_Diagnostic error) {
+    }
+
+    public abstract void lexicalErrors(List<SMSL_Diagnostic> errors);
+
+    // Called even if there are syntax errors; the program is what the parser recovered
+    public abstract void syntax(SMSL_Ast.Program program, List<SMSL_Diagnostic> errors);
+
+    // The modules the program imports, once loaded; errors are their lexical and
+    // syntax errors, which no other hook reports
+    public void modules(List<SMSL_Project.Module> modules, List<SMSL_Diagnostic> errors) {
+    }
+
+    public void semanticAnalysisStart() {
+    }
+
+    // Sorted by position, errors and warnings together; empty if there are neither
+    public abstract void semanticErrors(List<SMSL_Diagnostic> errors);
+
+    // Code generation was skipped because of errors in these phases
+    public void stopped(List<SMSL_Diagnostic.Phase> phases) {
+    }
+
+    public void intermediateCode(SMSL_IR code) {
+    }
+
+    public void optimizedCode(SMSL_IR code) {
+    }
+
+    public void optimizationPasses(List<SMSL_Optimizer.PassResult> passes) {
+    }
+
+    // The transition layout chosen for each state of the optimized code
+    public void layout(SMSL_TableLayout layout) {
+    }
+
+    // A result loaded from the compile cache: diagnostics and optimized code only
+    public abstract void cachedResult(SMSL_CompilationResult result);
+
+    // A message from the driver; a leading newline only spaces out the pretty output
+    public abstract void message(Level level, String text);
+
+    // The source is done, whether compiled or loaded from the cache
+    public void end(SMSL_CompilationResult result) {
+    }
+
+    // Per-phase metrics, for --stats: a table unless overridden
+    public void stats(SMSL_CompileStats stats) {
+        String rule = "-----------------------------------------------------------------------------------------------------";
+        out.println(paint(SMSL_Compiler.CYAN, "\n------------------ Compile Stats ------------------"));
+        out.println(paint(SMSL_Compiler.CYAN, stats.sourceName + ": " + stats.tokens() + " tokens, " + stats.lines() + " lines"));
+        List<SMSL_CompileStats.PhaseResult> phases = stats.phases();
+        if (phases.isEmpty()) {
+            out.println(paint(SMSL_Compiler.CYAN, "No phases ran (loaded from the compile cache)."));
+            return;
+        }
+        out.println(paint(SMSL_Compiler.CYAN, String.format("| %-17s | %10s | %14s | %-22s | %13s | %11s |",
+                "Phase", "Time (ms)", "Allocated (KiB)", "Output", "Tokens/sec", "Lines/sec")));
+        out.println(paint(SMSL_Compiler.CYAN, rule));
+        for (SMSL_CompileStats.PhaseResult phase : phases) {
+            out.println(paint(SMSL_Compiler.CYAN, String.format("| %-17s | %10.3f | %15s | %-22s | %,13.0f | %,11.0f |",
+                    phase.phase.label, phase.nanos / 1e6, kibibytes(phase.allocatedBytes),
+                    phase.outputSize + " " + phase.phase.outputUnit,
+                    phase.perSecond(stats.tokens()), phase.perSecond(stats.lines()))));
+        }
+        out.println(paint(SMSL_Compiler.CYAN, rule));
+        long total = stats.totalNanos();
+        out.println(paint(SMSL_Compiler.CYAN, String.format("| %-17s | %10.3f | %15s | %-22s | %,13.0f | %,11.0f |",
+                "total", total / 1e6, kibibytes(stats.totalAllocatedBytes()), "",
+                total == 0 ? 0 : stats.tokens() * 1e9 / total, total == 0 ? 0 : stats.lines() * 1e9 / total)));
+    }
+
+    // One file of a --batch run: a line per file unless overridden
+    public void batchResult(SMSL_CompilationResult result) {
+        if (result.hasErrors()) {
+            out.println(paint(SMSL_Compiler.RED, "FAILED " + result.sourceName));
+            result.errors().forEach(error -> out.println(paint(SMSL_Compiler.RED, "  " + error)));
+        } else {
+            out.println(paint(SMSL_Compiler.GREEN, "OK     " + result.sourceName + " (" + result.tokens.size()
+                    + " tokens, " + result.optimizedCode.size() + " quadruples)"));
+        }
+    }
+
+    public void batchSummary(int files, int failed, long millis, int parallelism) {
+        out.println(paint(SMSL_Compiler.CYAN, "\nCompiled " + files + " files (" + failed + " failed) in "
+                + millis + " ms with parallelism " + parallelism));
+    }
+
+    // A recompilation by --watch, with the blocks it reused and recompiled
+    public void watchResult(SMSL_CompilationResult result, double millis, int reusedBlocks, int compiledBlocks) {
+        String summary = String.format("%s in %.1f ms (%d blocks reused, %d recompiled)",
+                result.sourceName, millis, reusedBlocks, compiledBlocks);
+        if (result.hasErrors()) {
+            out.println(paint(SMSL_Compiler.RED, "FAILED " + summary));
+            result.errors().forEach(error -> out.println(paint(SMSL_Compiler.RED, "  " + error)));
+        } else {
+            out.println(paint(SMSL_Compiler.GREEN, "OK     " + summary + ", "
+                    + result.optimizedCode.size() + " quadruples"));
+        }
+    }
+
+    // For --runtime-bench: a table unless overridden
+    public void runtimeBenchmark(SMSL_Runtime.Benchmark benchmark) {
+        out.println(paint(SMSL_Compiler.CYAN, "\n------------------ Runtime Benchmark ------------------"));
+        out.println(paint(SMSL_Compiler.CYAN, benchmark.states + " states, " + benchmark.events + " events, "
+                + benchmark.instances + " instances, " + benchmark.eventsPerRun + " events per run, table "
+                + benchmark.tableBytes / 1024 + " KiB"));
+        out.println(paint(SMSL_Compiler.CYAN, String.format("| %-8s | %-16s | %-8s | %-12s |",
+                "Workers", "Events/sec", "Speedup", "Ignored")));
+        for (SMSL_Runtime.BenchmarkRun run : benchmark.runs) {
+            out.println(paint(SMSL_Compiler.CYAN, String.format("| %-8d | %,16.0f | %7.2fx | %-12d |",
+                    run.workers, run.eventsPerSecond, run.speedup, run.ignoredEvents)));
+        }
+    }
+
+    // For --layout-bench: a table unless overridden
+    public void layoutBenchmark(SMSL_TableLayout.Benchmark benchmark) {
+        out.println(paint(SMSL_Compiler.CYAN, "\n------------------ Layout Benchmark ------------------"));
+        out.println(paint(SMSL_Compiler.CYAN, benchmark.states + " states, " + benchmark.events + " events, "
+                + benchmark.lookups + " lookups per layout"));
+        out.println(paint(SMSL_Compiler.CYAN, String.format("| %-8s | %-10s | %-16s | %-14s |",
+                "Layout", "ns/lookup", "Lookups/sec", "Memory (KiB)")));
+        for (SMSL_TableLayout.BenchmarkRow row : benchmark.rows) {
+            out.println(paint(SMSL_Compiler.CYAN, row.tooLarge
+                    ? String.format("| %-8s | %-45s |", row.name, "too large")
+                    : String.format("| %-8s | %10.2f | %,16.0f | %,14d |",
+                            row.name, row.nanosPerLookup, row.lookupsPerSecond, row.bytes / 1024)));
+        }
+    }
+
+    private static String kibibytes(long bytes) {
+        return bytes < 0 ? "n/a" : String.format("%,d", bytes >> 10);
+    }
+
+    public void flush() {
+        out.flush();
+    }
+
+    // Chars that reached the stream so far
+    public long charsWritten() {
+        return sink.chars;
+    }
+
+    protected String paint(String color, String text) {
+        return this.color ? color + text + SMSL_Compiler.RESET : text;
+    }
+
+    // "syntax", "syntax and semantic", "lexical, syntax and semantic"
+    protected static String phaseList(List<SMSL_Diagnostic.Phase> phases) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < phases.size(); i++) {
+            if (i > 0) text.append(i == phases.size() - 1 ? " and " : ", ");
+            text.append(phases.get(i).label.toLowerCase());
+        }
+        return text.toString();
+    }
+
+    // Writes buffered chunks through the stream's own charset, so the output
+    // interleaves correctly with anything else written to the stream
+    private static final class StreamWriter extends Writer {
+        private final PrintStream stream;
+        private long chars;
+
+        StreamWriter(PrintStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            stream.print(new String(buffer, offset, length));
+            chars += length;
+        }
+
+        @Override
+        public void flush() {
+            stream.flush();
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+
+    // The console tables and parse tree
+    public static final class Pretty extends SMSL_Reporter {
+        private static final String TOKEN_RULE =
+                " -----------------------------------------------------------------------------------------------";
+        private static final String CODE_RULE = "-------------------------------------------------------------";
+        private static final String PASS_RULE =
+                "-------------------------------------------------------------------------------";
+        private static final String MODULE_RULE =
+                "-----------------------------------------------------------------------------------";
+        private static final String LAYOUT_RULE = "-------------------------------------------------------------";
+
+        private final String cyan;
+        private final String magenta;
+        private final String green;
+        private final String yellow;
+        private final String reset;
+
+        public Pretty(PrintStream stream, boolean color) {
+            super(stream, color);
+            this.cyan = color ? SMSL_Compiler.CYAN : "";
+            this.magenta = color ? SMSL_Compiler.MAGENTA : "";
+            this.green = color ? SMSL_Compiler.GREEN : "";
+            this.yellow = color ? SMSL_Compiler.YELLOW : "";
+            this.reset = color ? SMSL_Compiler.RESET : "";
+        }
+
+        @Override
+        public void tokensStart() {
+            out.println(paint(SMSL_Compiler.CYAN, TOKEN_RULE));
+            out.println(paint(SMSL_Compiler.CYAN, "|   Line   |              Lexeme              |     Token      | Token Index |"));
+            out.println(paint(SMSL_Compiler.CYAN, TOKEN_RULE));
+        }
+
+        // Padded by hand: a Formatter per token costs more than the rest of the line
+        @Override
+        public void token(SMSL_TokenBuffer tokens, int i) {
+            int type = tokens.type(i);
+            out.write(cyan);
+            cell(Integer.toString(tokens.line(i)), 8);
+            out.write(magenta);
+            cell(tokens.lexeme(i), 32);
+            out.write(green);
+            cell(SMSL_Compiler.tokenName(type), 14);
+            out.write(yellow);
+            cell(Integer.toString(type), 11);
+            out.write('|');
+            out.write('\n');
+            out.write(reset);
+        }
+
+        @Override
+        public void tokensEnd() {
+            out.println(paint(SMSL_Compiler.CYAN, TOKEN_RULE));
+        }
+
+        @Override
+        public void lexicalError(SMSL_Diagnostic error) {
+            out.println(paint(SMSL_Compiler.RED, error.toString()));
+        }
+
+        @Override
+        public void lexicalErrors(List<SMSL_Diagnostic> errors) {
+            if (errors.isEmpty()) return;
+            out.println(paint(SMSL_Compiler.RED, "\nLexical Errors:"));
+            errors.forEach(error -> out.println(paint(SMSL_Compiler.RED, error.toString())));
+        }
+
+        @Override
+        public void syntax(SMSL_Ast.Program program, List<SMSL_Diagnostic> errors) {
+            out.println(paint(SMSL_Compiler.CYAN, "\n------------------ Syntax Analysis ------------------"));
+            if (errors.isEmpty()) {
+                out.println(paint(SMSL_Compiler.GREEN, "Valid syntax [Valid]"));
+                printParseTree(program);
+            } else {
+                errors.forEach(error -> out.println(paint(SMSL_Compiler.RED, error.toString())));
+            }
+        }
+
+        @Override
+        public void modules(List<SMSL_Project.Module> modules, List<SMSL_Diagnostic> errors) {
+            out.println(paint(SMSL_Compiler.CYAN, "\n------------------ Modules ------------------"));
+            out.println(paint(SMSL_Compiler.CYAN, String.format("| %-40s | %8s | %12s | %-10s |",
+                    "Module", "States", "Instructions", "Source")));
+            out.println(paint(SMSL_Compiler.CYAN, MODULE_RULE));
+            for (SMSL_Project.Module module : modules) {
+                out.println(paint(SMSL_Compiler.CYAN, String.format("| %-40s | %8d | %12d | %-10s |", module.name,
+                        module.states.size(), module.code.size(), module.cached ? "cache" : "compiled")));
+            }
+            out.println(paint(SMSL_Compiler.CYAN, MODULE_RULE));
+            if (!errors.isEmpty()) {
+                out.println(paint(SMSL_Compiler.RED, "\nModule Errors:"));
+                errors.forEach(error -> out.println(paint(SMSL_Compiler.RED, error.toString())));
+            }
+        }
+
+        @Override
+        public void semanticAnalysisStart() {
+            out.println(paint(SMSL_Compiler.CYAN, "\n------------------ Semantic Analysis ------------------"));
+        }
+
+        @Override
+        public void semanticErrors(List<SMSL_Diagnostic> diagnostics) {
+            List<SMSL_Diagnostic> errors = new ArrayList<>();
+            List<SMSL_Diagnostic> warnings = new ArrayList<>();
+            for (SMSL_Diagnostic diagnostic : diagnostics) {
+                (diagnostic.severity == SMSL_Diagnostic.Severity.WARNING ? warnings : errors).add(diagnostic);
+            }
+            if (errors.isEmpty()) {
+                out.println(paint(SMSL_Compiler.GREEN, "\nNo semantic errors found."));
+            } else {
+                out.println(paint(SMSL_Compiler.RED, "\nSemantic Errors:"));
+                errors.forEach(error -> out.println(paint(SMSL_Compiler.RED, error.toString())));
+            }
+            if (!warnings.isEmpty()) {
+                out.println(paint(SMSL_Compiler.YELLOW, "\nSemantic Warnings:"));
+                warnings.forEach(warning -> out.println(paint(SMSL_Compiler.YELLOW, warning.toString())));
+            }
+        }
+
+        @Override
+        public void stopped(List<SMSL_Diagnostic.Phase> phases) {
+            out.println(paint(SMSL_Compiler.RED, "\nCompilation stopped due to " + phaseList(phases) + " errors."));
+        }
+
+        @Override
+        public void intermediateCode(SMSL_IR code) {
+            out.println(paint(SMSL_Compiler.CYAN, "\n------------------ Intermediate Code ------------------"));
+            printTable(code);
+        }
+
+        @Override
+        public void optimizedCode(SMSL_IR code) {
+            out.println(paint(SMSL_Compiler.CYAN, "\n------------------Code Optimized ------------------"));
+            printTable(code);
+        }
+
+        @Override
+        public void optimizationPasses(List<SMSL_Optimizer.PassResult> passes) {
+            out.println(paint(SMSL_Compiler.CYAN, "\n------------------ Optimization Passes ------------------"));
+            out.write(cyan + String.format("| %-22s | %-10s | %-22s | %-15s |\n", "Pass", "Time (ms)", "Instructions", "States")
+                    + reset);
+            out.println(paint(SMSL_Compiler.CYAN, PASS_RULE));
+            for (SMSL_Optimizer.PassResult pass : passes) {
+                out.write(cyan + String.format("| %-22s | %10.3f | %-22s | %-15s |\n", pass.name, pass.nanos / 1e6,
+                        pass.instructionsBefore + " -> " + pass.instructionsAfter
+                                + " (-" + (pass.instructionsBefore - pass.instructionsAfter) + ")",
+                        pass.statesBefore + " -> " + pass.statesAfter) + reset);
+            }
+            out.println(paint(SMSL_Compiler.CYAN, PASS_RULE));
+        }
+
+        @Override
+        public void layout(SMSL_TableLayout layout) {
+            out.println(paint(SMSL_Compiler.CYAN, "\n------------------ Transition Layout ------------------"));
+            out.println(paint(SMSL_Compiler.CYAN, String.format("%d states, %d events, %d transitions (%.1f%% dense), "
+                    + "%d top-level events", layout.states, layout.events, layout.transitions,
+                    layout.density() * 100, layout.topLevelEvents)));
+            out.println(paint(SMSL_Compiler.CYAN, String.format("| %-10s | %10s | %14s | %14s |",
+                    "Layout", "States", "Entries", "Bytes")));
+            out.println(paint(SMSL_Compiler.CYAN, LAYOUT_RULE));
+            for (SMSL_TableLayout.Kind kind : SMSL_TableLayout.Kind.values()) {
+                out.println(paint(SMSL_Compiler.CYAN, String.format("| %-10s | %10d | %14d | %14d |", kind.label,
+                        layout.states(kind), layout.entries(kind), layout.memoryBytes(kind))));
+            }
+            out.println(paint(SMSL_Compiler.CYAN, LAYOUT_RULE));
+            out.println(paint(SMSL_Compiler.CYAN, "Expected memory: " + layout.memoryBytes()
+                    + " bytes with the state index and top-level transitions (dense table: "
+                    + layout.denseTableBytes() + " bytes)"));
+        }
+
+        @Override
+        public void cachedResult(SMSL_CompilationResult result) {
+            message(Level.INFO, "Loaded '" + result.sourceName + "' from the compile cache.");
+            lexicalErrors(phase(result, SMSL_Diagnostic.Phase.LEXICAL));
+            List<SMSL_Diagnostic> syntaxErrors = phase(result, SMSL_Diagnostic.Phase.SYNTAX);
+            if (!syntaxErrors.isEmpty()) {
+                out.println(paint(SMSL_Compiler.RED, "\nSyntax Errors:"));
+                syntaxErrors.forEach(error -> out.println(paint(SMSL_Compiler.RED, error.toString())));
+            }
+            List<SMSL_Diagnostic> semanticErrors = phase(result, SMSL_Diagnostic.Phase.SEMANTIC);
+            if (!result.semanticErrors.isEmpty()) {
+                semanticErrors(semanticErrors);
+            }
+            if (!result.hasErrors()) {
+                optimizedCode(result.optimizedCode);
+                layout(result.layout);
+                semanticErrors(semanticErrors);
+            }
+        }
+
+        @Override
+        public void message(Level level, String text) {
+            String color = level == Level.ERROR ? SMSL_Compiler.RED
+                    : level == Level.WARNING ? SMSL_Compiler.YELLOW : SMSL_Compiler.GREEN;
+            out.println(paint(color, text));
+        }
+
+        private static List<SMSL_Diagnostic> phase(SMSL_CompilationResult result, SMSL_Diagnostic.Phase phase) {
+            List<SMSL_Diagnostic> diagnostics = new ArrayList<>();
+            for (SMSL_Diagnostic diagnostic : result.diagnostics) {
+                if (diagnostic.phase == phase) diagnostics.add(diagnostic);
+            }
+            return diagnostics;
+        }
+
+        private void printTable(SMSL_IR code) {
+            out.write(cyan + String.format("| %-15s | %-15s | %-15s | %-15s |\n", "Operation", "Arg1", "Arg2", "Result")
+                    + reset);
+            out.println(paint(SMSL_Compiler.CYAN, CODE_RULE));
+            for (int i = 0; i < code.size(); i++) {
+                String[] quad = code.quadruple(i);
+                out.write(cyan);
+                for (String value : quad) cell(value, 15);
+                out.write('|');
+                out.write('\n');
+                out.write(reset);
+            }
+            out.println(paint(SMSL_Compiler.CYAN, CODE_RULE));
+        }
+
+        // "| value" left-aligned in width columns, then a space; like "| %-<width>s "
+        private void cell(String value, int width) {
+            out.write("| ");
+            out.write(value);
+            for (int pad = width - value.length(); pad > 0; pad--) out.write(' ');
+            out.write(' ');
+        }
+
+        private void printParseTree(SMSL_Ast.Program program) {
+            out.println("  Parse Tree:");
+            out.println("  Program");
+            for (int i = 0; i < program.imports.size(); i++) {
+                printParseTreeNode(program.imports.get(i), "  ", i == program.imports.size() - 1 && program.items.isEmpty());
+            }
+            for (int i = 0; i < program.items.size(); i++) {
+                printParseTreeNode(program.items.get(i), "  ", i == program.items.size() - 1);
+            }
+        }
+
+        private void printParseTreeNode(SMSL_Ast.Node node, String indent, boolean last) {
+            String branch = indent + (last ? "└── " : "├── ");
+            String childIndent = indent + (last ? "    " : "│   ");
+
+            if (node instanceof SMSL_Ast.StateDecl) {
+                SMSL_Ast.StateDecl state = (SMSL_Ast.StateDecl) node;
+                out.println(branch + "STATE -> " + state.name);
+                for (int i = 0; i < state.body.size(); i++) {
+                    printParseTreeNode(state.body.get(i), childIndent, i == state.body.size() - 1);
+                }
+            } else if (node instanceof SMSL_Ast.TransitionDecl) {
+                SMSL_Ast.TransitionDecl transition = (SMSL_Ast.TransitionDecl) node;
+                out.println(branch + "TRANSITION -> " + transition.name
+                        + " (event " + (transition.event == null ? "<missing>" : transition.event)
+                        + " -> " + transition.target + ")");
+                for (int i = 0; i < transition.actions.size(); i++) {
+                    printParseTreeNode(transition.actions.get(i), childIndent, i == transition.actions.size() - 1);
+                }
+            } else if (node instanceof SMSL_Ast.ActionStmt) {
+                out.println(branch + "ACTION -> " + ((SMSL_Ast.ActionStmt) node).name);
+            } else if (node instanceof SMSL_Ast.ImportDecl) {
+                out.println(branch + "IMPORT -> " + ((SMSL_Ast.ImportDecl) node).path);
+            }
+        }
+    }
+
+    // Diagnostics and errors only, one per line and prefixed with the source position
+    public static final class Quiet extends SMSL_Reporter {
+        public Quiet(PrintStream stream, boolean color) {
+            super(stream, color);
+        }
+
+        @Override
+        public void lexicalErrors(List<SMSL_Diagnostic> errors) {
+            diagnostics(errors);
+        }
+
+        @Override
+        public void syntax(SMSL_Ast.Program program, List<SMSL_Diagnostic> errors) {
+            diagnostics(errors);
+        }
+
+        @Override
+        public void modules(List<SMSL_Project.Module> modules, List<SMSL_Diagnostic> errors) {
+            diagnostics(errors);
+        }
+
+        @Override
+        public void semanticErrors(List<SMSL_Diagnostic> errors) {
+            diagnostics(errors);
+        }
+
+        @Override
+        public void cachedResult(SMSL_CompilationResult result) {
+            diagnostics(result.diagnostics);
+        }
+
+        @Override
+        public void message(Level level, String text) {
+            if (level != Level.INFO) {
+                out.println(paint(level == Level.ERROR ? SMSL_Compiler.RED : SMSL_Compiler.YELLOW, text.trim()));
+            }
+        }
+
+        @Override
+        public void batchResult(SMSL_CompilationResult result) {
+            begin(result.sourceName);
+            diagnostics(result.diagnostics);
+        }
+
+        @Override
+        public void batchSummary(int files, int failed, long millis, int parallelism) {
+        }
+
+        @Override
+        public void watchResult(SMSL_CompilationResult result, double millis, int reusedBlocks, int compiledBlocks) {
+            begin(result.sourceName);
+            diagnostics(result.diagnostics);
+        }
+
+        // "source:line:column: error SMSL302: message", the form editors can jump from
+        private void diagnostics(List<SMSL_Diagnostic> errors) {
+            for (SMSL_Diagnostic error : errors) {
+                String position = error.line == 0 ? "" : error.line + ":" + (error.column == 0 ? "" : error.column + ":");
+                String color = error.severity == SMSL_Diagnostic.Severity.WARNING ? SMSL_Compiler.YELLOW : SMSL_Compiler.RED;
+                out.println(paint(color, (error.source != null ? error.source : sourceName) + ":" + position + " "
+                        + error.severity.name().toLowerCase() + " " + error.code + ": " + error.message));
+            }
+        }
+    }
+
+    // One JSON object per line, each with a "type": token, diagnostic, module,
+    // instruction, pass, layout, stopped, message, phase, result, batch, watch,
+    // runtimeBenchmark or layoutBenchmark
+    public static final class Ndjson extends SMSL_Reporter {
+        public Ndjson(PrintStream stream) {
+            super(stream, false);
+        }
+
+        @Override
+        public void token(SMSL_TokenBuffer tokens, int i) {
+            int type = tokens.type(i);
+            out.write("{\"type\":\"token\",\"source\":");
+            string(sourceName);
+            out.write(",\"line\":");
+            out.write(Integer.toString(tokens.line(i)));
+            out.write(",\"lexeme\":");
+            string(tokens.lexeme(i));
+            out.write(",\"token\":\"");
+            out.write(SMSL_Compiler.tokenName(type));
+            out.write("\",\"index\":");
+            out.write(Integer.toString(type));
+            out.write("}\n");
+        }
+
+        @Override
+        public void lexicalErrors(List<SMSL_Diagnostic> errors) {
+            diagnostics(errors);
+        }
+
+        @Override
+        public void syntax(SMSL_Ast.Program program, List<SMSL_Diagnostic> errors) {
+            diagnostics(errors);
+        }
+
+        // One "module" object per imported module, then its lexical and syntax errors
+        @Override
+        public void modules(List<SMSL_Project.Module> modules, List<SMSL_Diagnostic> errors) {
+            for (SMSL_Project.Module module : modules) {
+                out.write("{\"type\":\"module\",\"source\":");
+                string(sourceName);
+                out.write(",\"module\":");
+                string(module.name);
+                out.write(",\"states\":" + module.states.size() + ",\"instructions\":" + module.code.size()
+                        + ",\"cached\":" + module.cached + "}\n");
+            }
+            diagnostics(errors);
+        }
+
+        @Override
+        public void semanticErrors(List<SMSL_Diagnostic> errors) {
+            diagnostics(errors);
+        }
+
+        // "phase" is the first phase with errors, "phases" all of them
+        @Override
+        public void stopped(List<SMSL_Diagnostic.Phase> phases) {
+            out.write("{\"type\":\"stopped\",\"source\":");
+            string(sourceName);
+            out.write(",\"phase\":\"" + phases.get(0).label.toLowerCase() + "\",\"phases\":[");
+            for (int i = 0; i < phases.size(); i++) {
+                if (i > 0) out.write(',');
+                out.write("\"" + phases.get(i).label.toLowerCase() + "\"");
+            }
+            out.write("]}\n");
+        }
+
+        @Override
+        public void intermediateCode(SMSL_IR code) {
+            instructions("intermediate", code);
+        }
+
+        @Override
+        public void optimizedCode(SMSL_IR code) {
+            instructions("optimized", code);
+        }
+
+        @Override
+        public void optimizationPasses(List<SMSL_Optimizer.PassResult> passes) {
+            for (SMSL_Optimizer.PassResult pass : passes) {
+                out.write("{\"type\":\"pass\",\"source\":");
+                string(sourceName);
+                out.write(",\"name\":");
+                string(pass.name);
+                out.write(",\"nanos\":" + pass.nanos
+                        + ",\"instructionsBefore\":" + pass.instructionsBefore
+                        + ",\"instructionsAfter\":" + pass.instructionsAfter
+                        + ",\"statesBefore\":" + pass.statesBefore
+                        + ",\"statesAfter\":" + pass.statesAfter + "}\n");
+            }
+        }
+
+        // One "layout" object with the machine's cardinality, and per layout its
+        // states, row entries and bytes
+        @Override
+        public void layout(SMSL_TableLayout layout) {
+            out.write("{\"type\":\"layout\",\"source\":");
+            string(sourceName);
+            out.write(",\"states\":" + layout.states + ",\"events\":" + layout.events
+                    + ",\"transitions\":" + layout.transitions + ",\"topLevelEvents\":" + layout.topLevelEvents
+                    + ",\"density\":" + layout.density() + ",\"bytes\":" + layout.memoryBytes()
+                    + ",\"denseTableBytes\":" + layout.denseTableBytes() + ",\"layouts\":{");
+            for (SMSL_TableLayout.Kind kind : SMSL_TableLayout.Kind.values()) {
+                if (kind.ordinal() > 0) out.write(',');
+                out.write("\"" + kind.label + "\":{\"states\":" + layout.states(kind)
+                        + ",\"entries\":" + layout.entries(kind) + ",\"bytes\":" + layout.memoryBytes(kind) + "}");
+            }
+            out.write("}}\n");
+        }
+
+        @Override
+        public void cachedResult(SMSL_CompilationResult result) {
+            diagnostics(result.diagnostics);
+            if (!result.hasErrors()) {
+                optimizedCode(result.optimizedCode);
+                layout(result.layout);
+            }
+        }
+
+        @Override
+        public void message(Level level, String text) {
+            out.write("{\"type\":\"message\",\"level\":\"" + level.name().toLowerCase() + "\",\"text\":");
+            string(text.trim());
+            out.write("}\n");
+        }
+
+        @Override
+        public void stats(SMSL_CompileStats stats) {
+            for (SMSL_CompileStats.PhaseResult phase : stats.phases()) {
+                out.write("{\"type\":\"phase\",\"source\":");
+                string(stats.sourceName);
+                out.write(",\"phase\":\"" + phase.phase.label + "\",\"nanos\":" + phase.nanos
+                        + ",\"allocatedBytes\":" + phase.allocatedBytes
+                        + ",\"outputSize\":" + phase.outputSize
+                        + ",\"outputUnit\":\"" + phase.phase.outputUnit + "\""
+                        + ",\"tokens\":" + stats.tokens() + ",\"lines\":" + stats.lines() + "}\n");
+            }
+        }
+
+        @Override
+        public void end(SMSL_CompilationResult result) {
+            out.write("{\"type\":\"result\",\"source\":");
+            string(result.sourceName);
+            out.write(",\"errors\":" + result.errors().size()
+                    + ",\"instructions\":" + result.intermediateCode.size()
+                    + ",\"optimizedInstructions\":" + result.optimizedCode.size() + "}\n");
+        }
+
+        // Each file's diagnostics and "result", then one "batch" object
+        @Override
+        public void batchResult(SMSL_CompilationResult result) {
+            begin(result.sourceName);
+            diagnostics(result.diagnostics);
+            end(result);
+        }
+
+        @Override
+        public void batchSummary(int files, int failed, long millis, int parallelism) {
+            out.write("{\"type\":\"batch\",\"files\":" + files + ",\"failed\":" + failed
+                    + ",\"millis\":" + millis + ",\"parallelism\":" + parallelism + "}\n");
+        }
+
+        // The diagnostics, a "watch" object with the blocks reused and recompiled, and the "result"
+        @Override
+        public void watchResult(SMSL_CompilationResult result, double millis, int reusedBlocks, int compiledBlocks) {
+            begin(result.sourceName);
+            diagnostics(result.diagnostics);
+            out.write("{\"type\":\"watch\",\"source\":");
+            string(result.sourceName);
+            out.write(",\"millis\":" + millis + ",\"reusedBlocks\":" + reusedBlocks
+                    + ",\"compiledBlocks\":" + compiledBlocks + "}\n");
+            end(result);
+        }
+
+        // One "runtimeBenchmark" object per number of workers
+        @Override
+        public void runtimeBenchmark(SMSL_Runtime.Benchmark benchmark) {
+            for (SMSL_Runtime.BenchmarkRun run : benchmark.runs) {
+                out.write("{\"type\":\"runtimeBenchmark\",\"source\":");
+                string(sourceName);
+                out.write(",\"states\":" + benchmark.states + ",\"events\":" + benchmark.events
+                        + ",\"instances\":" + benchmark.instances + ",\"eventsPerRun\":" + benchmark.eventsPerRun
+                        + ",\"tableBytes\":" + benchmark.tableBytes + ",\"workers\":" + run.workers
+                        + ",\"eventsPerSecond\":" + run.eventsPerSecond + ",\"speedup\":" + run.speedup
+                        + ",\"ignoredEvents\":" + run.ignoredEvents + "}\n");
+            }
+        }
+
+        // One "layoutBenchmark" object per layout; one too large to build has only "tooLarge"
+        @Override
+        public void layoutBenchmark(SMSL_TableLayout.Benchmark benchmark) {
+            for (SMSL_TableLayout.BenchmarkRow row : benchmark.rows) {
+                out.write("{\"type\":\"layoutBenchmark\",\"source\":");
+                string(sourceName);
+                out.write(",\"states\":" + benchmark.states + ",\"events\":" + benchmark.events
+                        + ",\"lookups\":" + benchmark.lookups + ",\"layout\":");
+                string(row.name);
+                out.write(row.tooLarge ? ",\"tooLarge\":true}\n"
+                        : ",\"tooLarge\":false,\"nanosPerLookup\":" + row.nanosPerLookup
+                                + ",\"lookupsPerSecond\":" + row.lookupsPerSecond + ",\"bytes\":" + row.bytes + "}\n");
+            }
+        }
+
+        private void diagnostics(List<SMSL_Diagnostic> errors) {
+            for (SMSL_Diagnostic error : errors) {
+                out.write("{\"type\":\"diagnostic\",\"source\":");
+                string(error.source != null ? error.source : sourceName);
+                out.write(",\"phase\":\"" + error.phase.label.toLowerCase()
+                        + "\",\"severity\":\"" + error.severity.name().toLowerCase()
+                        + "\",\"code\":\"" + error.code
+                        + "\",\"line\":" + error.line + ",\"column\":" + error.column + ",\"message\":");
+                string(error.message);
+                out.write("}\n");
+            }
+        }
+
+        private void instructions(String kind, SMSL_IR code) {
+            SMSL_SymbolTable symbols = code.symbols();
+            for (int i = 0; i < code.size(); i++) {
+                String[] quad = code.quadruple(i);
+                int source = code.source(i);
+                out.write("{\"type\":\"instruction\",\"source\":");
+                string(sourceName);
+                out.write(",\"code\":\"" + kind + "\",\"index\":" + i + ",\"op\":");
+                string(quad[0]);
+                out.write(",\"arg1\":");
+                string(quad[1]);
+                out.write(",\"arg2\":");
+                string(quad[2]);
+                out.write(",\"result\":");
+                string(quad[3]);
+                out.write(",\"state\":");
+                if (source == SMSL_IR.NONE) {
+                    out.write("null");
+                } else {
+                    string(symbols.name(SMSL_SymbolTable.STATE, source));
+                }
+                out.write("}\n");
+            }
+        }
+
+        private void string(String value) {
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.write('\\');
+                    out.write(c);
+                } else if (c < 0x20) {
+                    out.write(String.format("\\u%04x", (int) c));
+                } else {
+                    out.write(c);
+                }
+            }
+            out.write('"');
+        }
+    }
+}
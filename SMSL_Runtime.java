@@ -0,0 +1,292 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+// Table-driven runtime for one machine definition and many instances. The
+// current state of every instance lives in one int[]; events arrive in batches
+// of (instance, event) pairs. Instances are sharded into contiguous ranges, one
+// per worker, so each instance's events are applied in batch order by a single
+// thread. A batch is partitioned in parallel (per-chunk histograms, then a
+// scatter into reused buffers) and then applied, with no per-event allocation.
+//
+// The runtime tracks states only; use SMSL_CodeGenerator for action callbacks.
+public class SMSL_Runtime implements AutoCloseable {
+    private static final int PAD = 16; // Longs between per-worker counters, against false sharing
+
+    private final SMSL_TransitionTable table;
+    private final int[] states;
+    private final int workers;
+    private final int shardSize;
+    private final CyclicBarrier barrier;
+    private final Thread[] threads;
+
+    // Current batch, published to the workers by the barrier
+    private int[] batchInstances;
+    private int[] batchEvents;
+    private int batchSize;
+    private volatile boolean closed;
+    private volatile RuntimeException failure;
+
+    // Partitioning state, reused across batches
+    private final int[][] counts; // [chunk][shard]
+    private final int[][] cursors; // [chunk][shard], where the chunk's next pair for the shard goes
+    private final int[] shardStarts;
+    private int[] sortedInstances = new int[0];
+    private int[] sortedEvents = new int[0];
+    private final long[] fired;
+    private final long[] ignored;
+
+    public SMSL_Runtime(SMSL_IR code, int instances, int workers) {
+        this(new SMSL_TransitionTable(code), instances, workers);
+    }
+
+    public SMSL_Runtime(SMSL_TransitionTable table, int instances, int workers) {
+        if (table.startState == SMSL_IR.NONE) throw new IllegalArgumentException("Machine has no states");
+        this.table = table;
+        this.states = new int[instances];
+        this.workers = Math.max(1, Math.min(workers, Math.max(1, instances)));
+        this.shardSize = (int) (((long) instances + this.workers - 1) / this.workers);
+        this.counts = new int[this.workers][this.workers];
+        this.cursors = new int[this.workers][this.workers];
+        this.shardStarts = new int[this.workers + 1];
+        this.fired = new long[this.workers * PAD];
+        this.ignored = new long[this.workers * PAD];
+        reset();
+
+        // The calling thread works as worker 0
+        this.barrier = new CyclicBarrier(this.workers);
+        this.threads = new Thread[this.workers - 1];
+        for (int w = 1; w < this.workers; w++) {
+            int worker = w;
+            threads[w - 1] = new Thread(() -> workerLoop(worker), "smsl-runtime-" + w);
+            threads[w - 1].setDaemon(true);
+            threads[w - 1].start();
+        }
+    }
+
+    public int instances() {
+        return states.length;
+    }
+
+    public int workers() {
+        return workers;
+    }
+
+    public int state(int instance) {
+        return states[instance];
+    }
+
+    public void reset() {
+        Arrays.fill(states, table.startState);
+    }
+
+    // Events that changed state, and events no transition handles
+    public long firedEvents() {
+        return sum(fired);
+    }
+
+    public long ignoredEvents() {
+        return sum(ignored);
+    }
+
+    // Applies count (instance, event) pairs. Events of one instance are applied in
+    // batch order; the call returns when the whole batch is applied.
+    public synchronized void process(int[] instanceIds, int[] eventIds, int count) {
+        if (closed) throw new IllegalStateException("Runtime is closed");
+        if (count > instanceIds.length || count > eventIds.length) {
+            throw new IllegalArgumentException("Batch of " + count + " exceeds its arrays");
+        }
+        if (workers == 1) {
+            for (int i = 0; i < count; i++) shard(instanceIds[i]);
+            apply(instanceIds, eventIds, 0, count, 0);
+            return;
+        }
+        if (sortedInstances.length < count) {
+            sortedInstances = new int[count];
+            sortedEvents = new int[count];
+        }
+        batchInstances = instanceIds;
+        batchEvents = eventIds;
+        batchSize = count;
+        failure = null;
+        runBatch(0);
+        if (failure != null) throw failure;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (workers > 1) {
+            await(); // Releases the workers, which see closed and exit
+        }
+    }
+
+    private void workerLoop(int worker) {
+        while (true) {
+            await();
+            if (closed) return;
+            runBatch(worker);
+        }
+    }
+
+    // One batch on one worker: count, barrier, scatter, barrier, apply, barrier
+    private void runBatch(int worker) {
+        if (worker == 0) await(); // Start the workers on the published batch
+        int from = (int) ((long) batchSize * worker / workers);
+        int to = (int) ((long) batchSize * (worker + 1) / workers);
+
+        int[] count = counts[worker];
+        Arrays.fill(count, 0);
+        try {
+            for (int i = from; i < to; i++) {
+                count[shard(batchInstances[i])]++;
+            }
+        } catch (IllegalArgumentException e) {
+            failure = e;
+        }
+        await();
+        if (failure != null) return; // Every worker sees it after the barrier
+
+        // Where this chunk's pairs go in each shard: after all earlier shards, and
+        // after earlier chunks' pairs for the same shard
+        int[] cursor = cursors[worker];
+        int start = 0;
+        for (int shard = 0; shard < workers; shard++) {
+            int position = start;
+            for (int chunk = 0; chunk < worker; chunk++) position += counts[chunk][shard];
+            for (int chunk = 0; chunk < workers; chunk++) start += counts[chunk][shard];
+            shardStarts[shard + 1] = start; // Same value from every worker
+            cursor[shard] = position;
+        }
+        for (int i = from; i < to; i++) {
+            int instance = batchInstances[i];
+            int slot = cursor[instance / shardSize]++;
+            sortedInstances[slot] = instance;
+            sortedEvents[slot] = batchEvents[i];
+        }
+        await();
+
+        apply(sortedInstances, sortedEvents, shardStarts[worker], shardStarts[worker + 1], worker);
+        await();
+    }
+
+    // The hot loop: one table load and one store per event
+    private void apply(int[] instanceIds, int[] eventIds, int from, int to, int worker) {
+        int[] states = this.states;
+        SMSL_TransitionTable table = this.table;
+        int events = table.events;
+        long taken = 0;
+        long missed = 0;
+        for (int i = from; i < to; i++) {
+            int instance = instanceIds[i];
+            int event = eventIds[i];
+            int next = event >= 0 && event < events ? table.next(states[instance], event) : SMSL_IR.NONE;
+            if (next >= 0) {
+                states[instance] = next;
+                taken++;
+            } else {
+                missed++;
+            }
+        }
+        fired[worker * PAD] += taken;
+        ignored[worker * PAD] += missed;
+    }
+
+    private int shard(int instance) {
+        if (instance < 0 || instance >= states.length) {
+            throw new IllegalArgumentException("Instance " + instance + " out of range 0.." + (states.length - 1));
+        }
+        return instance / shardSize;
+    }
+
+    private void await() {
+        try {
+            barrier.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing a batch", e);
+        } catch (BrokenBarrierException e) {
+            throw new IllegalStateException("Runtime worker failed", e);
+        }
+    }
+
+    private static long sum(long[] padded) {
+        long total = 0;
+        for (int i = 0; i < padded.length; i += PAD) total += padded[i];
+        return total;
+    }
+
+    // Events/sec for 1, 2, 4, ... workers up to maxWorkers, on random batches;
+    // null if the machine has no states or events
+    public static Benchmark benchmark(SMSL_IR code, int instances, long totalEvents, int maxWorkers) {
+        SMSL_TransitionTable table = new SMSL_TransitionTable(code);
+        if (table.startState == SMSL_IR.NONE || table.events == 0) return null;
+        int batch = (int) Math.min(totalEvents, 1 << 20);
+        int[] instanceIds = new int[batch];
+        int[] eventIds = new int[batch];
+        Random random = new Random(42);
+        for (int i = 0; i < batch; i++) {
+            instanceIds[i] = random.nextInt(instances);
+            eventIds[i] = random.nextInt(table.events);
+        }
+        long batches = Math.max(1, totalEvents / batch);
+
+        Benchmark benchmark = new Benchmark(table.states, table.events, instances, batches * batch,
+                table.memoryBytes());
+        double baseline = 0;
+        for (int workers = 1; ; workers = Math.min(workers * 2, maxWorkers)) {
+            try (SMSL_Runtime runtime = new SMSL_Runtime(table, instances, workers)) {
+                runtime.process(instanceIds, eventIds, batch); // Warm-up
+                runtime.reset();
+                long ignoredBefore = runtime.ignoredEvents();
+                long start = System.nanoTime();
+                for (long b = 0; b < batches; b++) {
+                    runtime.process(instanceIds, eventIds, batch);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                double rate = batches * batch / seconds;
+                if (workers == 1) baseline = rate;
+                benchmark.runs.add(new BenchmarkRun(runtime.workers(), rate, rate / baseline,
+                        runtime.ignoredEvents() - ignoredBefore));
+            }
+            if (workers >= maxWorkers) break;
+        }
+        return benchmark;
+    }
+
+    // The machine and batches benchmark() ran, and a run per number of workers
+    public static final class Benchmark {
+        public final int states;
+        public final int events;
+        public final int instances;
+        public final long eventsPerRun;
+        public final long tableBytes;
+        public final List<BenchmarkRun> runs = new ArrayList<>();
+
+        Benchmark(int states, int events, int instances, long eventsPerRun, long tableBytes) {
+            this.states = states;
+            this.events = events;
+            this.instances = instances;
+            this.eventsPerRun = eventsPerRun;
+            this.tableBytes = tableBytes;
+        }
+    }
+
+    public static final class BenchmarkRun {
+        public final int workers;
+        public final double eventsPerSecond;
+        public final double speedup; // Over one worker
+        public final long ignoredEvents;
+
+        BenchmarkRun(int workers, double eventsPerSecond, double speedup, long ignoredEvents) {
+            this.workers = workers;
+            this.eventsPerSecond = eventsPerSecond;
+            this.speedup = speedup;
+            this.ignoredEvents = ignoredEvents;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+// Hand-written DFA scanner for SMSL. Classifies keywords, identifiers, numbers,
+// strings and symbols in a single pass over a char buffer, without regexes.
+// Token types use the same indices as SMSL_Compiler.TOKEN_INDEX.
+public class SMSL_Scanner {
+    public static final int EOF = 0;
+    public static final int STATE = 1;
+    public static final int TRANSITION = 2;
+    public static final int EVENT = 3;
+    public static final int ACTION = 4;
+    public static final int START = 5;
+    public static final int END = 6;
+    public static final int IDENTIFIER = 7;
+    public static final int NUMBER = 8;
+    public static final int STRING = 9;
+    public static final int SYMBOL = 10;
+    public static final int ARROW = 12;
+
+    private final char[] buf;
+    private final int end;
+    private int pos;
+    private int line;
+
+    private int tokenStart;
+    private int tokenEnd;
+    private int tokenLine;
+
+    public SMSL_Scanner(char[] buf, int start, int end, int firstLine) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+        this.line = firstLine;
+    }
+
+    public int tokenStart() {
+        return tokenStart;
+    }
+
+    public int tokenEnd() {
+        return tokenEnd;
+    }
+
+    public int tokenLine() {
+        return tokenLine;
+    }
+
+    // Returns the type of the next token, or EOF. Characters that do not start
+    // any token are skipped, like the regex lexer.
+    public int next() {
+        while (pos < end) {
+            char c = buf[pos];
+
+            if (c == '\n' || c == '\r') {
+                if (c == '\r' && pos + 1 < end && buf[pos + 1] == '\n') pos++;
+                pos++;
+                line++;
+                continue;
+            }
+
+            if (c == '/' && pos + 1 < end && buf[pos + 1] == '/') {
+                skipToEndOfLine(); // Ignore comments
+                continue;
+            }
+
+            tokenStart = pos;
+            tokenLine = line;
+
+            if (isIdentifierStart(c)) {
+                pos++;
+                while (pos < end && isIdentifierPart(buf[pos])) pos++;
+                tokenEnd = pos;
+                return classifyWord(tokenStart, pos - tokenStart);
+            }
+
+            if (isDigit(c)) {
+                pos++;
+                while (pos < end && isDigit(buf[pos])) pos++;
+                tokenEnd = pos;
+                return NUMBER;
+            }
+
+            if (c == '"' || c == '\'') {
+                int close = findClosingQuote(c);
+                if (close >= 0) {
+                    pos = close + 1;
+                    tokenEnd = pos;
+                    return STRING;
+                }
+                pos++; // Unterminated string: drop the quote and keep scanning
+                continue;
+            }
+
+            if (c == '-' && pos + 1 < end && buf[pos + 1] == '>') {
+                pos += 2;
+                tokenEnd = pos;
+                return ARROW;
+            }
+
+            pos++;
+            if (isSymbol(c)) {
+                tokenEnd = pos;
+                return SYMBOL;
+            }
+        }
+        tokenStart = tokenEnd = pos;
+        tokenLine = line;
+        return EOF;
+    }
+
+    private void skipToEndOfLine() {
+        while (pos < end && buf[pos] != '\n' && buf[pos] != '\r') pos++;
+    }
+
+    // A string closes on the same line, before any "//" comment marker
+    private int findClosingQuote(char quote) {
+        for (int i = pos + 1; i < end; i++) {
+            char c = buf[i];
+            if (c == quote) return i;
+            if (c == '\n' || c == '\r') return -1;
+            if (c == '/' && i + 1 < end && buf[i + 1] == '/') return -1;
+        }
+        return -1;
+    }
+
+    private int classifyWord(int start, int length) {
+        switch (length) {
+            case 3:
+                if (wordEquals(start, "end")) return END;
+                break;
+            case 5:
+                if (wordEquals(start, "state")) return STATE;
+                if (wordEquals(start, "event")) return EVENT;
+                if (wordEquals(start, "start")) return START;
+                break;
+            case 6:
+                if (wordEquals(start, "action")) return ACTION;
+                break;
+            case 10:
+                if (wordEquals(start, "transition")) return TRANSITION;
+                break;
+        }
+        return IDENTIFIER;
+    }
+
+    private boolean wordEquals(int start, String keyword) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (buf[start + i] != keyword.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSymbol(char c) {
+        switch (c) {
+            case '{': case '}': case '(': case ')': case ';': case ',': case ':':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
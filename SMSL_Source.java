@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Input layer: the whole spec decoded once into a single char buffer. Every phase
+// works on offsets into this buffer, so the text is never split into lines or copied.
+public class SMSL_Source {
+    // Largest char[] the JVM reliably allocates
+    public static final int MAX_CHARS = Integer.MAX_VALUE - 8;
+    private static final long MAP_WINDOW = 1L << 30;
+
+    public final String name;
+    public final char[] chars;
+    public final int length; // Number of valid chars, may be less than chars.length
+
+    public SMSL_Source(String name, char[] chars, int length) {
+        this.name = name;
+        this.chars = chars;
+        this.length = length;
+    }
+
+    public static SMSL_Source fromString(String name, String text) {
+        char[] chars = text.toCharArray();
+        return new SMSL_Source(name, chars, chars.length);
+    }
+
+    // Memory-maps the file and decodes it as UTF-8 straight into the char buffer,
+    // one mapped window at a time.
+    public static SMSL_Source fromFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // UTF-8 never decodes to more chars than bytes
+            CharBuffer out = CharBuffer.allocate((int) Math.min(size, MAX_CHARS));
+            CharsetDecoder decoder = newDecoder();
+
+            long position = 0;
+            while (position < size) {
+                long windowSize = Math.min(size - position, MAP_WINDOW);
+                boolean lastWindow = position + windowSize == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+
+                CoderResult result = decoder.decode(window, out, lastWindow);
+                if (result.isOverflow()) {
+                    throw new IOException(path + " is too large: more than " + MAX_CHARS + " characters");
+                }
+                // A multi-byte sequence split by the window is decoded from the next window
+                position += window.position();
+            }
+            decoder.flush(out);
+            return new SMSL_Source(path.toString(), out.array(), out.position());
+        }
+    }
+
+    public static SMSL_Source fromStream(String name, InputStream in) throws IOException {
+        Reader reader = new InputStreamReader(in, newDecoder());
+        char[] chars = new char[1 << 16];
+        int length = 0;
+        int read;
+        while ((read = reader.read(chars, length, chars.length - length)) != -1) {
+            length += read;
+            if (length == chars.length) {
+                if (length == MAX_CHARS) {
+                    throw new IOException(name + " is too large: more than " + MAX_CHARS + " characters");
+                }
+                chars = Arrays.copyOf(chars, (int) Math.min((long) length * 2, MAX_CHARS));
+            }
+        }
+        return new SMSL_Source(name, chars, length);
+    }
+
+    private static CharsetDecoder newDecoder() {
+        return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+}
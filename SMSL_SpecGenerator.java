@@ -0,0 +1,154 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// Generates synthetic, semantically valid specs for benchmarks. Every state has
+// actionsPerState actions and transitionsPerState transitions, each with
+// actionsPerState actions of its own. State i's first transition goes to state
+// i + 1, so every state is reachable; the others go to random states. A
+// duplicateRatio share of the actions and transitions repeat an earlier one of
+// the same state, for the optimizer to remove. Output is the same for the same
+// seed.
+public class SMSL_SpecGenerator {
+    private static final int ACTION_NAMES = 1024;
+
+    public final int states;
+    public final int transitionsPerState;
+    public final int actionsPerState;
+    public final double duplicateRatio;
+    public final int events;
+    private final long seed;
+
+    public SMSL_SpecGenerator(int states, int transitionsPerState, int actionsPerState, double duplicateRatio, long seed) {
+        if (states < 1 || transitionsPerState < 1 || actionsPerState < 0) {
+            throw new IllegalArgumentException("Need at least one state and one transition per state");
+        }
+        if (duplicateRatio < 0 || duplicateRatio >= 1) {
+            throw new IllegalArgumentException("Duplicate ratio must be in [0, 1): " + duplicateRatio);
+        }
+        this.states = states;
+        this.transitionsPerState = transitionsPerState;
+        this.actionsPerState = actionsPerState;
+        this.duplicateRatio = duplicateRatio;
+        this.events = Math.max(8, transitionsPerState * 2);
+        this.seed = seed;
+    }
+
+    // As many states as it takes to reach about the given number of lines
+    public static SMSL_SpecGenerator forLines(long lines, int transitionsPerState, int actionsPerState,
+                                              double duplicateRatio, long seed) {
+        long perState = linesPerState(transitionsPerState, actionsPerState);
+        long states = Math.max(1, (lines - 2 + perState - 1) / perState);
+        if (states > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many lines: " + lines);
+        return new SMSL_SpecGenerator((int) states, transitionsPerState, actionsPerState, duplicateRatio, seed);
+    }
+
+    private static long linesPerState(int transitionsPerState, int actionsPerState) {
+        return 2 + actionsPerState + (long) transitionsPerState * (2 + actionsPerState);
+    }
+
+    public long lines() {
+        return 2 + states * linesPerState(transitionsPerState, actionsPerState);
+    }
+
+    public String generate() {
+        StringBuilder out = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, lines() * 24));
+        try {
+            write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder doesn't throw
+        }
+        return out.toString();
+    }
+
+    public void write(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(out);
+        }
+    }
+
+    public void write(Appendable out) throws IOException {
+        Random random = new Random(seed);
+        int[] stateActions = new int[actionsPerState];
+        int[] transitionEvents = new int[transitionsPerState];
+        int[] transitionTargets = new int[transitionsPerState];
+
+        out.append("start;\n");
+        for (int state = 0; state < states; state++) {
+            out.append("state S").append(Integer.toString(state)).append(" {\n");
+            for (int a = 0; a < actionsPerState; a++) {
+                stateActions[a] = a > 0 && random.nextDouble() < duplicateRatio
+                        ? stateActions[random.nextInt(a)]
+                        : random.nextInt(ACTION_NAMES);
+                out.append("    action A").append(Integer.toString(stateActions[a])).append(";\n");
+            }
+            for (int t = 0; t < transitionsPerState; t++) {
+                int copy = t > 0 && random.nextDouble() < duplicateRatio ? random.nextInt(t) : -1;
+                if (copy >= 0) {
+                    transitionEvents[t] = transitionEvents[copy];
+                    transitionTargets[t] = transitionTargets[copy];
+                } else {
+                    transitionEvents[t] = t == 0 ? state % events : random.nextInt(events);
+                    transitionTargets[t] = t == 0 ? (state + 1) % states : random.nextInt(states);
+                }
+                out.append("    transition T").append(Integer.toString(state)).append('_').append(Integer.toString(copy >= 0 ? copy : t))
+                        .append(": event E").append(Integer.toString(transitionEvents[t]))
+                        .append(" -> S").append(Integer.toString(transitionTargets[t])).append(" {\n");
+                for (int a = 0; a < actionsPerState; a++) {
+                    out.append("        action B").append(Integer.toString(random.nextInt(ACTION_NAMES))).append(";\n");
+                }
+                out.append("    }\n");
+            }
+            out.append("}\n");
+        }
+        out.append("end;\n");
+    }
+
+    // java SMSL_SpecGenerator [--lines=N | --states=N] [--transitions=N] [--actions=N]
+    //                         [--duplicates=R] [--seed=N] [file]
+    public static void main(String[] args) throws IOException {
+        long lines = 1000;
+        int states = -1;
+        int transitions = 2;
+        int actions = 1;
+        double duplicates = 0.1;
+        long seed = 42;
+        String output = null;
+
+        for (String arg : args) {
+            if (arg.startsWith("--lines=")) {
+                lines = Long.parseLong(arg.substring("--lines=".length()));
+            } else if (arg.startsWith("--states=")) {
+                states = Integer.parseInt(arg.substring("--states=".length()));
+            } else if (arg.startsWith("--transitions=")) {
+                transitions = Integer.parseInt(arg.substring("--transitions=".length()));
+            } else if (arg.startsWith("--actions=")) {
+                actions = Integer.parseInt(arg.substring("--actions=".length()));
+            } else if (arg.startsWith("--duplicates=")) {
+                duplicates = Double.parseDouble(arg.substring("--duplicates=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else {
+                output = arg;
+            }
+        }
+
+        SMSL_SpecGenerator generator = states > 0
+                ? new SMSL_SpecGenerator(states, transitions, actions, duplicates, seed)
+                : forLines(lines, transitions, actions, duplicates, seed);
+        if (output == null) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+            generator.write(out);
+            out.flush();
+        } else {
+            generator.write(Paths.get(output));
+        }
+    }
+}
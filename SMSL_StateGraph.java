@@ -0,0 +1,280 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+// Indexed transition graph of a parsed program, for the questions semantic
+// analysis asks about the machine as a whole. Built in one pass over the syntax
+// tree, in time and memory linear in the number of states and transitions:
+//
+// - next(state, event) is an open-addressing hash lookup on the (state, event)
+//   pair, falling back to the top-level transition for the event;
+// - each state's outgoing transitions are in compressed sparse rows;
+// - reachability from the start state is a breadth-first search into a bitset.
+//
+// Only the first transition for a (state, event) pair fires; a later one with
+// another target makes the spec nondeterministic and is recorded as a conflict.
+// Only the first declaration of each state counts, like in semantic analysis.
+public class SMSL_StateGraph {
+    private static final long EMPTY = -1L;
+
+    public final int states; // State symbols, declared or only referenced
+    public final int events;
+    public final int startState; // First declared state; -1 if there is none
+
+    private final SMSL_Ast.StateDecl[] declarations; // First declaration of each state, or null
+    private final int[] firstEdge; // Edges of state s are [firstEdge[s], firstEdge[s + 1])
+    private final int[] edgeEvents;
+    private final int[] edgeTargets;
+    private final long[] keys; // (state << 32 | event), EMPTY for a free slot
+    private final int[] values; // Target of the key in the same slot
+    private final int[] topLevel; // Target of the first top-level transition per event, or -1
+    private final int[] topLevelEvents; // Events with a top-level transition, in declaration order
+    private final List<Conflict> conflicts;
+    private final BitSet reachable;
+
+    // A transition that never fires because an earlier one handles its (state, event)
+    public static final class Conflict {
+        public final int state; // -1 for top-level transitions
+        public final int event;
+        public final SMSL_Ast.TransitionDecl first;
+        public final SMSL_Ast.TransitionDecl ignored;
+
+        Conflict(int state, int event, SMSL_Ast.TransitionDecl first, SMSL_Ast.TransitionDecl ignored) {
+            this.state = state;
+            this.event = event;
+            this.first = first;
+            this.ignored = ignored;
+        }
+    }
+
+    private SMSL_StateGraph(SMSL_Ast.Program program) {
+        SMSL_SymbolTable symbols = program.symbols;
+        this.states = symbols.size(SMSL_SymbolTable.STATE);
+        this.events = symbols.size(SMSL_SymbolTable.EVENT);
+        this.declarations = new SMSL_Ast.StateDecl[states];
+
+        // Declarations, and an upper bound on the edges for the hash table
+        int start = -1;
+        int transitions = 0;
+        for (SMSL_Ast.Node item : program.items) {
+            if (item instanceof SMSL_Ast.StateDecl) {
+                SMSL_Ast.StateDecl state = (SMSL_Ast.StateDecl) item;
+                if (declarations[state.id] != null) continue;
+                declarations[state.id] = state;
+                if (start < 0) start = state.id;
+                for (SMSL_Ast.Node member : state.body) {
+                    if (member instanceof SMSL_Ast.TransitionDecl) transitions++;
+                }
+            }
+        }
+        this.startState = start;
+
+        int capacity = Integer.highestOneBit(Math.max(2, transitions) * 2 - 1) << 1; // Load of at most 0.5
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+
+        // First transition per (state, event) pair and per top-level event
+        List<Conflict> conflicts = new ArrayList<>();
+        SMSL_Ast.TransitionDecl[] firstTopLevel = new SMSL_Ast.TransitionDecl[events];
+        int[] edgeSources = new int[transitions];
+        int[] edgeEvents = new int[transitions];
+        int[] edgeTargets = new int[transitions];
+        SMSL_Ast.TransitionDecl[] edgeDecls = new SMSL_Ast.TransitionDecl[transitions];
+        int edges = 0;
+        int[] topLevelEvents = new int[Math.min(events, 16)];
+        int topLevelCount = 0;
+        int[] counts = new int[states + 1];
+        for (SMSL_Ast.Node item : program.items) {
+            if (item instanceof SMSL_Ast.StateDecl) {
+                SMSL_Ast.StateDecl state = (SMSL_Ast.StateDecl) item;
+                if (declarations[state.id] != state) continue;
+                for (SMSL_Ast.Node member : state.body) {
+                    if (!(member instanceof SMSL_Ast.TransitionDecl)) continue;
+                    SMSL_Ast.TransitionDecl transition = (SMSL_Ast.TransitionDecl) member;
+                    if (transition.eventId < 0) continue; // Reported by semantic analysis
+                    int slot = slot(state.id, transition.eventId);
+                    if (keys[slot] != EMPTY) {
+                        SMSL_Ast.TransitionDecl first = edgeDecls[values[slot]];
+                        if (first.targetId != transition.targetId) {
+                            conflicts.add(new Conflict(state.id, transition.eventId, first, transition));
+                        }
+                        continue;
+                    }
+                    keys[slot] = key(state.id, transition.eventId);
+                    values[slot] = edges; // Edge index for now; the target once the rows are built
+                    edgeSources[edges] = state.id;
+                    edgeEvents[edges] = transition.eventId;
+                    edgeTargets[edges] = transition.targetId;
+                    edgeDecls[edges] = transition;
+                    counts[state.id + 1]++;
+                    edges++;
+                }
+            } else if (item instanceof SMSL_Ast.TransitionDecl) {
+                SMSL_Ast.TransitionDecl transition = (SMSL_Ast.TransitionDecl) item;
+                if (transition.eventId < 0) continue;
+                SMSL_Ast.TransitionDecl first = firstTopLevel[transition.eventId];
+                if (first == null) {
+                    firstTopLevel[transition.eventId] = transition;
+                    if (topLevelCount == topLevelEvents.length) {
+                        topLevelEvents = Arrays.copyOf(topLevelEvents, topLevelCount * 2);
+                    }
+                    topLevelEvents[topLevelCount++] = transition.eventId;
+                } else if (first.targetId != transition.targetId) {
+                    conflicts.add(new Conflict(-1, transition.eventId, first, transition));
+                }
+            }
+        }
+        this.conflicts = Collections.unmodifiableList(conflicts);
+        this.topLevelEvents = Arrays.copyOf(topLevelEvents, topLevelCount);
+        this.topLevel = new int[events];
+        Arrays.fill(topLevel, -1);
+        for (int i = 0; i < topLevelCount; i++) {
+            topLevel[topLevelEvents[i]] = firstTopLevel[topLevelEvents[i]].targetId;
+        }
+
+        // Rows by source state, keeping declaration order within each row
+        for (int s = 0; s < states; s++) counts[s + 1] += counts[s];
+        this.firstEdge = counts;
+        this.edgeEvents = new int[edges];
+        this.edgeTargets = new int[edges];
+        int[] next = Arrays.copyOf(counts, states);
+        for (int e = 0; e < edges; e++) {
+            int position = next[edgeSources[e]]++;
+            this.edgeEvents[position] = edgeEvents[e];
+            this.edgeTargets[position] = edgeTargets[e];
+        }
+        for (int slot = 0; slot < capacity; slot++) {
+            if (keys[slot] != EMPTY) values[slot] = edgeTargets[values[slot]];
+        }
+
+        this.reachable = searchReachable();
+    }
+
+    public static SMSL_StateGraph build(SMSL_Ast.Program program) {
+        return new SMSL_StateGraph(program);
+    }
+
+    // Next state after the event, or -1 if no transition handles it
+    public int next(int state, int event) {
+        long key = key(state, event);
+        for (int slot = hash(key, keys.length); ; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == key) return values[slot];
+            if (keys[slot] == EMPTY) return topLevel[event];
+        }
+    }
+
+    // The state's own transition for the event, ignoring top-level ones
+    public boolean handles(int state, int event) {
+        long key = key(state, event);
+        for (int slot = hash(key, keys.length); ; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == key) return true;
+            if (keys[slot] == EMPTY) return false;
+        }
+    }
+
+    public boolean isDeclared(int state) {
+        return declarations[state] != null;
+    }
+
+    public SMSL_Ast.StateDecl declaration(int state) {
+        return declarations[state];
+    }
+
+    // The state's own transitions that fire, in declaration order
+    public int outDegree(int state) {
+        return firstEdge[state + 1] - firstEdge[state];
+    }
+
+    public int edgeEvent(int state, int k) {
+        return edgeEvents[firstEdge[state] + k];
+    }
+
+    public int edgeTarget(int state, int k) {
+        return edgeTargets[firstEdge[state] + k];
+    }
+
+    public List<Conflict> conflicts() {
+        return conflicts;
+    }
+
+    // Top-level transitions fire from any state, so their targets are reachable as
+    // soon as the start state is; this matches the optimizer's unreachable-states pass
+    public boolean isReachable(int state) {
+        return reachable.get(state);
+    }
+
+    // Declared states the start state can't reach
+    public BitSet unreachable() {
+        BitSet unreachable = new BitSet(states);
+        for (int s = 0; s < states; s++) {
+            if (declarations[s] != null && !reachable.get(s)) unreachable.set(s);
+        }
+        return unreachable;
+    }
+
+    // Reachable declared states that no transition leaves: every transition that
+    // can fire from them, their own or top-level, leads back to the same state
+    public BitSet deadEnds() {
+        BitSet deadEnds = new BitSet(states);
+        for (int s = reachable.nextSetBit(0); s >= 0; s = reachable.nextSetBit(s + 1)) {
+            if (declarations[s] != null && !hasExit(s)) deadEnds.set(s);
+        }
+        return deadEnds;
+    }
+
+    private boolean hasExit(int state) {
+        for (int e = firstEdge[state]; e < firstEdge[state + 1]; e++) {
+            if (edgeTargets[e] != state) return true;
+        }
+        for (int event : topLevelEvents) {
+            if (topLevel[event] != state && !handles(state, event)) return true;
+        }
+        return false;
+    }
+
+    private BitSet searchReachable() {
+        BitSet seen = new BitSet(states);
+        if (startState < 0) return seen;
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        seen.set(startState);
+        queue[tail++] = startState;
+        for (int event : topLevelEvents) {
+            int target = topLevel[event];
+            if (!seen.get(target)) {
+                seen.set(target);
+                queue[tail++] = target;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int e = firstEdge[state]; e < firstEdge[state + 1]; e++) {
+                int target = edgeTargets[e];
+                if (!seen.get(target)) {
+                    seen.set(target);
+                    queue[tail++] = target;
+                }
+            }
+        }
+        return seen;
+    }
+
+    private int slot(int state, int event) {
+        long key = key(state, event);
+        int slot = hash(key, keys.length);
+        while (keys[slot] != EMPTY && keys[slot] != key) slot = (slot + 1) & (keys.length - 1);
+        return slot;
+    }
+
+    private static long key(int state, int event) {
+        return (long) state << 32 | event;
+    }
+
+    private static int hash(long key, int capacity) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1);
+    }
+}
@@ -0,0 +1,22 @@
+// A runnable state machine generated from a compiled spec by SMSL_CodeGenerator.
+// States, events and actions are the symbol IDs of the spec's symbol table.
+//
+// The machine starts in the spec's start state (its first declared state). On an
+// event it takes the current state's transition for that event, or else the
+// top-level transition for it: it runs the transition's actions, moves to the
+// target state and runs that state's actions.
+public interface SMSL_StateMachine {
+
+    // Receives every action the machine runs, in order
+    interface Actions {
+        void onAction(int action);
+    }
+
+    int state();
+
+    // Returns false, leaving the state unchanged, if no transition handles the event
+    boolean fire(int event);
+
+    // Returns to the start state without running any actions
+    void reset();
+}
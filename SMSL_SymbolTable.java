@@ -0,0 +1,128 @@
+import java.util.Arrays;
+
+// Interns state, event, action and transition names to dense int IDs, one
+// namespace per kind. Names can be interned straight from a char range of the
+// source, so a String is only created the first time a name is seen.
+public class SMSL_SymbolTable {
+    public static final int STATE = 0;
+    public static final int EVENT = 1;
+    public static final int ACTION = 2;
+    public static final int TRANSITION = 3;
+    public static final int KINDS = 4;
+
+    private final Namespace[] namespaces = new Namespace[KINDS];
+
+    public SMSL_SymbolTable() {
+        for (int kind = 0; kind < KINDS; kind++) {
+            namespaces[kind] = new Namespace();
+        }
+    }
+
+    public int intern(int kind, char[] chars, int start, int end) {
+        return namespaces[kind].intern(chars, start, end, null);
+    }
+
+    public int intern(int kind, String name) {
+        return namespaces[kind].intern(null, 0, name.length(), name);
+    }
+
+    // Returns the ID of the name, or -1 if it was never interned
+    public int lookup(int kind, String name) {
+        return namespaces[kind].lookup(name);
+    }
+
+    public String name(int kind, int id) {
+        return namespaces[kind].names[id];
+    }
+
+    public int size(int kind) {
+        return namespaces[kind].size;
+    }
+
+    private static final class Namespace {
+        private String[] names = new String[16];
+        private int[] hashes = new int[16];
+        private int[] slots = new int[32]; // Open addressing: ID + 1, 0 when empty
+        private int size;
+
+        int intern(char[] chars, int start, int end, String name) {
+            int hash = name != null ? hash(name) : hash(chars, start, end);
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int id = slots[slot] - 1;
+                if (id < 0) {
+                    if (name == null) {
+                        name = new String(chars, start, end - start);
+                    }
+                    return add(slot, hash, name);
+                }
+                if (hashes[id] == hash && (name != null ? names[id].equals(name) : equals(names[id], chars, start, end))) {
+                    return id;
+                }
+            }
+        }
+
+        int lookup(String name) {
+            int hash = hash(name);
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int id = slots[slot] - 1;
+                if (id < 0) return -1;
+                if (hashes[id] == hash && names[id].equals(name)) return id;
+            }
+        }
+
+        private int add(int slot, int hash, String name) {
+            int id = size++;
+            if (id == names.length) {
+                names = Arrays.copyOf(names, id * 2);
+                hashes = Arrays.copyOf(hashes, id * 2);
+            }
+            names[id] = name;
+            hashes[id] = hash;
+            slots[slot] = id + 1;
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int id = 0; id < size; id++) {
+                int slot = hashes[id] & mask;
+                while (slots[slot] != 0) slot = (slot + 1) & mask;
+                slots[slot] = id + 1;
+            }
+        }
+
+        private static boolean equals(String name, char[] chars, int start, int end) {
+            if (name.length() != end - start) return false;
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) != chars[start + i]) return false;
+            }
+            return true;
+        }
+
+        // Same hash for a String and a char range (String.hashCode is cached and uses
+        // the same polynomial), mixed so similar names like S1, S2 don't cluster
+        private static int hash(String name) {
+            return mix(name.hashCode());
+        }
+
+        private static int hash(char[] chars, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) h = 31 * h + chars[i];
+            return mix(h);
+        }
+
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Lowering of optimized IR into a next-state lookup whose layout is chosen per
+// state from its cardinality: k, the events the state handles itself, and span,
+// the distance from its lowest to its highest such event.
+//
+// - switch: at most SWITCH_MAX events, compared in turn, like a small switch;
+// - dense: at least a quarter of the span is handled, an array indexed by
+//   event - lowest, at most twice the size of a sorted row;
+// - sorted: up to SORTED_MAX events, binary search over the sorted events;
+// - hash: more, an open-addressing int map at a load of at most 0.5, unless
+//   a dense row would be no bigger.
+//
+// Every row lives in one int[], so a state costs a byte for its layout and two
+// ints for where its row starts and its lowest event (or hash shift). Top-level
+// transitions are a dense array over all events, consulted when the state's own
+// row has no entry. Like SMSL_TransitionTable, the first transition for a
+// (state, event) wins and next() returns -1 if no transition handles the event.
+public class SMSL_TableLayout {
+    public static final int SWITCH_MAX = 4;
+    public static final int SORTED_MAX = 16;
+
+    private static final byte EMPTY = 0;
+    private static final byte SWITCH = 1;
+    private static final byte DENSE = 2;
+    private static final byte SORTED = 3;
+    private static final byte HASH = 4;
+    private static final int STATE_BYTES = 1 + 2 * Integer.BYTES; // layouts, rows and bases per state
+
+    private static volatile int sink; // Keeps the benchmark's lookups live
+
+    // In the order of the byte codes above
+    public enum Kind {
+        EMPTY("empty"), SWITCH("switch"), DENSE("dense"), SORTED("sorted"), HASH("hash");
+
+        public final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+
+        public static Kind of(String label) {
+            for (Kind kind : values()) {
+                if (kind.label.equals(label)) return kind;
+            }
+            throw new IllegalArgumentException("Unknown layout: " + label);
+        }
+    }
+
+    public final int states;
+    public final int events;
+    public final int startState;
+    public final int transitions; // The states' own transitions that fire
+    public final int topLevelEvents; // Events with a top-level transition
+
+    private final byte[] layouts;
+    private final int[] rows; // Row of state s is data[rows[s], rows[s + 1])
+    private final int[] bases; // Lowest event for dense rows, the hash shift for hash rows
+    private final int[] data;
+    private final int[] topLevel; // Per event, or -1
+    private final int[] kindStates = new int[Kind.values().length];
+    private final long[] kindEntries = new long[Kind.values().length];
+
+    private SMSL_TableLayout(SMSL_IR code, Kind forced) {
+        SMSL_SymbolTable symbols = code.symbols();
+        this.states = symbols.size(SMSL_SymbolTable.STATE);
+        this.events = symbols.size(SMSL_SymbolTable.EVENT);
+        this.startState = code.startState();
+
+        // Own transitions by state in compressed sparse rows, in instruction order
+        int[] first = new int[states + 1];
+        this.topLevel = new int[events];
+        Arrays.fill(topLevel, SMSL_IR.NONE);
+        int topLevelCount = 0;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.opcode(i) != SMSL_IR.Opcode.TRANSITION || code.arg2(i) == SMSL_IR.NONE) continue;
+            if (code.source(i) != SMSL_IR.NONE) {
+                first[code.source(i) + 1]++;
+            } else if (topLevel[code.arg2(i)] == SMSL_IR.NONE) {
+                topLevel[code.arg2(i)] = code.result(i);
+                topLevelCount++;
+            }
+        }
+        this.topLevelEvents = topLevelCount;
+        for (int s = 0; s < states; s++) first[s + 1] += first[s];
+        int[] edgeEvents = new int[first[states]];
+        int[] edgeTargets = new int[first[states]];
+        int[] fill = Arrays.copyOf(first, states);
+        for (int i = 0; i < code.size(); i++) {
+            int source = code.source(i);
+            if (code.opcode(i) != SMSL_IR.Opcode.TRANSITION || code.arg2(i) == SMSL_IR.NONE || source == SMSL_IR.NONE) {
+                continue;
+            }
+            edgeEvents[fill[source]] = code.arg2(i);
+            edgeTargets[fill[source]++] = code.result(i);
+        }
+
+        // Drop shadowed transitions, then measure each state and pick its layout
+        this.layouts = new byte[states];
+        this.rows = new int[states + 1];
+        this.bases = new int[states];
+        int[] lastSeen = new int[events];
+        Arrays.fill(lastSeen, -1);
+        int[] handled = new int[states];
+        int kept = 0;
+        for (int s = 0; s < states; s++) {
+            int k = 0;
+            int lowest = Integer.MAX_VALUE;
+            int highest = Integer.MIN_VALUE;
+            for (int e = first[s]; e < first[s + 1]; e++) {
+                int event = edgeEvents[e];
+                if (lastSeen[event] == s) continue;
+                lastSeen[event] = s;
+                edgeEvents[first[s] + k] = event;
+                edgeTargets[first[s] + k] = edgeTargets[e];
+                k++;
+                lowest = Math.min(lowest, event);
+                highest = Math.max(highest, event);
+            }
+            handled[s] = k;
+            kept += k;
+            Kind kind = k == 0 ? Kind.EMPTY : forced != null ? forced : choose(k, highest - lowest + 1);
+            layouts[s] = (byte) kind.ordinal();
+            long length = rowLength(kind, k, highest - lowest + 1);
+            if (rows[s] + length > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Transition layout for " + states + " states and " + events
+                        + " events exceeds the maximum array size");
+            }
+            rows[s + 1] = rows[s] + (int) length;
+            bases[s] = kind == Kind.DENSE ? lowest
+                    : kind == Kind.HASH ? Integer.numberOfLeadingZeros((int) length / 2) + 1 : 0;
+            kindStates[kind.ordinal()]++;
+            kindEntries[kind.ordinal()] += length;
+        }
+        this.transitions = kept;
+
+        this.data = new int[rows[states]];
+        long[] pairs = new long[0];
+        for (int s = 0; s < states; s++) {
+            int from = first[s];
+            int k = handled[s];
+            int row = rows[s];
+            switch (layouts[s]) {
+                case SWITCH:
+                    // Declaration order, like the cases of a switch
+                    System.arraycopy(edgeEvents, from, data, row, k);
+                    System.arraycopy(edgeTargets, from, data, row + k, k);
+                    break;
+                case DENSE:
+                    Arrays.fill(data, row, rows[s + 1], SMSL_IR.NONE);
+                    for (int e = from; e < from + k; e++) data[row + edgeEvents[e] - bases[s]] = edgeTargets[e];
+                    break;
+                case SORTED:
+                    if (pairs.length < k) pairs = new long[Math.max(k, pairs.length * 2)];
+                    for (int e = 0; e < k; e++) pairs[e] = (long) edgeEvents[from + e] << 32 | edgeTargets[from + e];
+                    Arrays.sort(pairs, 0, k);
+                    for (int e = 0; e < k; e++) {
+                        data[row + e] = (int) (pairs[e] >>> 32);
+                        data[row + k + e] = (int) pairs[e];
+                    }
+                    break;
+                case HASH:
+                    int capacity = (rows[s + 1] - row) / 2;
+                    Arrays.fill(data, row, row + capacity, SMSL_IR.NONE);
+                    for (int e = from; e < from + k; e++) {
+                        int slot = hash(edgeEvents[e], bases[s]);
+                        while (data[row + slot] != SMSL_IR.NONE) slot = (slot + 1) & (capacity - 1);
+                        data[row + slot] = edgeEvents[e];
+                        data[row + capacity + slot] = edgeTargets[e];
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // Picks each state's layout from its cardinality
+    public static SMSL_TableLayout lower(SMSL_IR code) {
+        return new SMSL_TableLayout(code, null);
+    }
+
+    // Uses one layout for every state with transitions, for comparing layouts
+    public static SMSL_TableLayout lower(SMSL_IR code, Kind kind) {
+        if (kind == Kind.EMPTY) throw new IllegalArgumentException("Can't force the empty layout");
+        return new SMSL_TableLayout(code, kind);
+    }
+
+    static Kind choose(int k, int span) {
+        if (k <= SWITCH_MAX) return Kind.SWITCH;
+        if (span <= 4 * k) return Kind.DENSE; // At most twice the sorted row, for one load
+        if (k <= SORTED_MAX) return Kind.SORTED;
+        return span <= rowLength(Kind.HASH, k, span) ? Kind.DENSE : Kind.HASH; // Dense unless it's bigger
+    }
+
+    // Ints in the row of a state with k events over span
+    private static long rowLength(Kind kind, int k, int span) {
+        switch (kind) {
+            case SWITCH:
+            case SORTED:
+                return 2L * k;
+            case DENSE:
+                return span;
+            case HASH:
+                return 2L * Integer.highestOneBit(Math.max(2, k) * 2 - 1) * 2; // Keys and targets
+            default:
+                return 0;
+        }
+    }
+
+    // Next state, or -1 if no transition handles the event
+    public int next(int state, int event) {
+        int row = rows[state];
+        int end = rows[state + 1];
+        int next = SMSL_IR.NONE;
+        switch (layouts[state]) {
+            case SWITCH: {
+                int k = (end - row) >>> 1;
+                for (int i = row; i < row + k; i++) {
+                    if (data[i] == event) {
+                        next = data[i + k];
+                        break;
+                    }
+                }
+                break;
+            }
+            case DENSE: {
+                int i = row + event - bases[state];
+                if (i >= row && i < end) next = data[i];
+                break;
+            }
+            case SORTED: {
+                int k = (end - row) >>> 1;
+                int i = Arrays.binarySearch(data, row, row + k, event);
+                if (i >= 0) next = data[i + k];
+                break;
+            }
+            case HASH: {
+                int capacity = (end - row) >>> 1;
+                for (int slot = hash(event, bases[state]); ; slot = (slot + 1) & (capacity - 1)) {
+                    int key = data[row + slot];
+                    if (key == event) {
+                        next = data[row + capacity + slot];
+                        break;
+                    }
+                    if (key == SMSL_IR.NONE) break;
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        return next != SMSL_IR.NONE ? next : topLevel[event];
+    }
+
+    public Kind kind(int state) {
+        return Kind.values()[layouts[state]];
+    }
+
+    public int states(Kind kind) {
+        return kindStates[kind.ordinal()];
+    }
+
+    // Ints in the rows of the kind's states
+    public long entries(Kind kind) {
+        return kindEntries[kind.ordinal()];
+    }
+
+    public long memoryBytes(Kind kind) {
+        return kindEntries[kind.ordinal()] * Integer.BYTES;
+    }
+
+    // Rows, the per-state index and the top-level array
+    public long memoryBytes() {
+        return (long) data.length * Integer.BYTES + (long) states * STATE_BYTES + Integer.BYTES
+                + (long) events * Integer.BYTES;
+    }
+
+    // What SMSL_TransitionTable would take for the same machine
+    public long denseTableBytes() {
+        int eventBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, events - 1));
+        return ((long) states << eventBits) * Integer.BYTES;
+    }
+
+    // Share of (state, event) pairs the states handle themselves
+    public double density() {
+        return states == 0 || events == 0 ? 0 : (double) transitions / ((double) states * events);
+    }
+
+    // Fibonacci hashing into a table of 2^(32 - shift) slots
+    private static int hash(int event, int shift) {
+        return (event * 0x9E3779B9) >>> shift;
+    }
+
+    // Random (state, event) lookups: three in four are for an event the state
+    // handles itself, if it handles any, the rest for any event
+    public static final class Lookups {
+        public final int[] states;
+        public final int[] events;
+
+        public Lookups(SMSL_TableLayout layout, int count, long seed) {
+            // Each state's own events, in compressed sparse rows
+            int[] first = new int[layout.states + 1];
+            int[] handled = new int[layout.transitions];
+            for (int s = 0; s < layout.states; s++) {
+                first[s + 1] = first[s] + layout.handledEvents(s, handled, first[s]);
+            }
+
+            this.states = new int[count];
+            this.events = new int[count];
+            Random random = new Random(seed);
+            for (int i = 0; i < count; i++) {
+                int state = random.nextInt(layout.states);
+                int k = first[state + 1] - first[state];
+                states[i] = state;
+                events[i] = k > 0 && random.nextInt(4) != 0 ? handled[first[state] + random.nextInt(k)]
+                        : random.nextInt(layout.events);
+            }
+        }
+
+        // Sum of the next states, so the lookups can't be optimized away
+        public int run(SMSL_TableLayout layout) {
+            int sum = 0;
+            for (int i = 0; i < states.length; i++) sum += layout.next(states[i], events[i]);
+            return sum;
+        }
+
+        public int run(SMSL_TransitionTable table) {
+            int sum = 0;
+            for (int i = 0; i < states.length; i++) sum += table.next(states[i], events[i]);
+            return sum;
+        }
+    }
+
+    // Writes the events the state handles itself to out from at; returns how many
+    private int handledEvents(int state, int[] out, int at) {
+        int row = rows[state];
+        int end = rows[state + 1];
+        int count = 0;
+        switch (layouts[state]) {
+            case SWITCH:
+            case SORTED:
+                count = (end - row) / 2;
+                System.arraycopy(data, row, out, at, count);
+                break;
+            case DENSE:
+                for (int i = row; i < end; i++) {
+                    if (data[i] != SMSL_IR.NONE) out[at + count++] = bases[state] + i - row;
+                }
+                break;
+            case HASH:
+                for (int i = row; i < row + (end - row) / 2; i++) {
+                    if (data[i] != SMSL_IR.NONE) out[at + count++] = data[i];
+                }
+                break;
+            default:
+                break;
+        }
+        return count;
+    }
+
+    // Nanoseconds per lookup for the chosen layouts, each layout forced on every
+    // state, and the dense SMSL_TransitionTable, over the same random lookups;
+    // null if the machine has no states or events
+    public static Benchmark benchmark(SMSL_IR code, long totalLookups) {
+        SMSL_TableLayout chosen = lower(code);
+        if (chosen.states == 0 || chosen.events == 0) return null;
+        Lookups lookups = new Lookups(chosen, (int) Math.min(totalLookups, 1 << 20), 42);
+        long rounds = Math.max(1, totalLookups / lookups.states.length);
+
+        Benchmark benchmark = new Benchmark(chosen.states, chosen.events, rounds * lookups.states.length);
+        int expected = lookups.run(chosen);
+        benchmark.rows.add(benchmarkRow("chosen", chosen, null, lookups, rounds, expected));
+        for (Kind kind : Kind.values()) {
+            if (kind == Kind.EMPTY) continue;
+            SMSL_TableLayout forced;
+            try {
+                forced = lower(code, kind);
+            } catch (IllegalArgumentException e) {
+                benchmark.rows.add(new BenchmarkRow(kind.label));
+                continue;
+            }
+            benchmark.rows.add(benchmarkRow(kind.label, forced, null, lookups, rounds, expected));
+        }
+        SMSL_TransitionTable table;
+        try {
+            table = new SMSL_TransitionTable(code);
+        } catch (IllegalArgumentException e) {
+            benchmark.rows.add(new BenchmarkRow("table"));
+            return benchmark;
+        }
+        benchmark.rows.add(benchmarkRow("table", null, table, lookups, rounds, expected));
+        return benchmark;
+    }
+
+    private static BenchmarkRow benchmarkRow(String name, SMSL_TableLayout layout, SMSL_TransitionTable table,
+                                             Lookups lookups, long rounds, int expected) {
+        int sum = layout != null ? lookups.run(layout) : lookups.run(table); // Warm-up
+        if (sum != expected) throw new IllegalStateException("Layout " + name + " disagrees with the chosen layout");
+        long start = System.nanoTime();
+        for (long r = 0; r < rounds; r++) {
+            sum += layout != null ? lookups.run(layout) : lookups.run(table);
+        }
+        double nanos = System.nanoTime() - start;
+        long count = rounds * lookups.states.length;
+        sink = sum;
+        return new BenchmarkRow(name, nanos / count, count * 1e9 / nanos,
+                layout != null ? layout.memoryBytes() : table.memoryBytes());
+    }
+
+    // The machine benchmark() ran on, and a row per layout in the order they ran
+    public static final class Benchmark {
+        public final int states;
+        public final int events;
+        public final long lookups; // Per layout
+        public final List<BenchmarkRow> rows = new ArrayList<>();
+
+        Benchmark(int states, int events, long lookups) {
+            this.states = states;
+            this.events = events;
+            this.lookups = lookups;
+        }
+    }
+
+    public static final class BenchmarkRow {
+        public final String name; // "chosen", a Kind label or "table"
+        public final boolean tooLarge; // The layout couldn't be built; no measurements
+        public final double nanosPerLookup;
+        public final double lookupsPerSecond;
+        public final long bytes;
+
+        BenchmarkRow(String name, double nanosPerLookup, double lookupsPerSecond, long bytes) {
+            this.name = name;
+            this.tooLarge = false;
+            this.nanosPerLookup = nanosPerLookup;
+            this.lookupsPerSecond = lookupsPerSecond;
+            this.bytes = bytes;
+        }
+
+        BenchmarkRow(String name) {
+            this.name = name;
+            this.tooLarge = true;
+            this.nanosPerLookup = 0;
+            this.lookupsPerSecond = 0;
+            this.bytes = 0;
+        }
+    }
+}
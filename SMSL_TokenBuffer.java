@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+// Struct-of-arrays token stream. Each token is an int type (TOKEN_INDEX value),
+// an int line and a [start, end) range into the shared source char buffer, so no
+// per-token objects are created. Lexemes are only materialized on demand.
+public class SMSL_TokenBuffer {
+    private final char[] source;
+    private int[] types;
+    private int[] lines;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+
+    public SMSL_TokenBuffer(char[] source) {
+        this(source, Math.min(source.length / 4, 1 << 20)); // Grows on demand beyond 1M tokens
+    }
+
+    public SMSL_TokenBuffer(char[] source, int initialCapacity) {
+        this.source = source;
+        int capacity = Math.max(16, initialCapacity);
+        this.types = new int[capacity];
+        this.lines = new int[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+    }
+
+    public void add(int type, int line, int start, int end) {
+        if (size == types.length) {
+            int capacity = types.length * 2;
+            types = Arrays.copyOf(types, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        types[size] = type;
+        lines[size] = line;
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    // Appends another buffer's tokens over the same source, moved down lineDelta lines
+    public void addAll(SMSL_TokenBuffer other, int lineDelta) {
+        int needed = size + other.size;
+        if (needed > types.length) {
+            int capacity = Math.max(needed, types.length * 2);
+            types = Arrays.copyOf(types, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        System.arraycopy(other.types, 0, types, size, other.size);
+        System.arraycopy(other.starts, 0, starts, size, other.size);
+        System.arraycopy(other.ends, 0, ends, size, other.size);
+        for (int i = 0; i < other.size; i++) {
+            lines[size + i] = other.lines[i] + lineDelta;
+        }
+        size = needed;
+    }
+
+    public char[] source() {
+        return source;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int type(int i) {
+        return types[i];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int end(int i) {
+        return ends[i];
+    }
+
+    // 1-based column of the token, found by scanning back to the start of its line
+    public int column(int i) {
+        int start = starts[i];
+        int lineStart = start;
+        while (lineStart > 0 && source[lineStart - 1] != '\n' && source[lineStart - 1] != '\r') lineStart--;
+        return start - lineStart + 1;
+    }
+
+    public int length(int i) {
+        return ends[i] - starts[i];
+    }
+
+    public String lexeme(int i) {
+        return new String(source, starts[i], ends[i] - starts[i]);
+    }
+
+    // Compares a token's text without materializing it
+    public boolean lexemeEquals(int i, String text) {
+        int start = starts[i];
+        int length = ends[i] - start;
+        if (length != text.length()) return false;
+        for (int k = 0; k < length; k++) {
+            if (source[start + k] != text.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    public boolean isSymbol(int i, char symbol) {
+        return types[i] == SMSL_Scanner.SYMBOL && source[starts[i]] == symbol;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // Reusable forward cursor: advancing it never allocates
+    public final class Cursor {
+        private int index = -1;
+
+        public boolean next() {
+            return ++index < size;
+        }
+
+        public void reset() {
+            index = -1;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public int type() {
+            return types[index];
+        }
+
+        public int line() {
+            return lines[index];
+        }
+
+        public int start() {
+            return starts[index];
+        }
+
+        public int end() {
+            return ends[index];
+        }
+
+        public String lexeme() {
+            return SMSL_TokenBuffer.this.lexeme(index);
+        }
+    }
+}
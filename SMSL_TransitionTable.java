@@ -0,0 +1,57 @@
+import java.util.Arrays;
+
+// Dense next-state table built from optimized IR: next(state, event) is one array
+// load. Rows are padded to a power of two so the index is a shift and an or.
+// Top-level transitions fill every entry the state doesn't handle itself;
+// entries no transition handles hold -1.
+public class SMSL_TransitionTable {
+    public final int states;
+    public final int events;
+    public final int startState;
+    private final int eventBits;
+    private final int[] next;
+
+    public SMSL_TransitionTable(SMSL_IR code) {
+        SMSL_SymbolTable symbols = code.symbols();
+        this.states = symbols.size(SMSL_SymbolTable.STATE);
+        this.events = symbols.size(SMSL_SymbolTable.EVENT);
+        this.startState = code.startState();
+        this.eventBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, events - 1));
+        long cells = (long) states << eventBits;
+        if (cells > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Transition table for " + states + " states and " + events
+                    + " events exceeds the maximum array size");
+        }
+        this.next = new int[(int) cells];
+        Arrays.fill(next, SMSL_IR.NONE);
+
+        // Top-level transitions fill every row; the state's own transitions override them
+        int[] topLevel = new int[events];
+        Arrays.fill(topLevel, SMSL_IR.NONE);
+        for (int i = code.size() - 1; i >= 0; i--) {
+            if (code.opcode(i) == SMSL_IR.Opcode.TRANSITION && code.source(i) == SMSL_IR.NONE && code.arg2(i) != SMSL_IR.NONE) {
+                topLevel[code.arg2(i)] = code.result(i);
+            }
+        }
+        for (int state = 0; state < states; state++) {
+            System.arraycopy(topLevel, 0, next, state << eventBits, events);
+        }
+
+        // Backwards, so the first transition for a (state, event) is written last and wins
+        for (int i = code.size() - 1; i >= 0; i--) {
+            int source = code.source(i);
+            int event = code.arg2(i);
+            if (code.opcode(i) != SMSL_IR.Opcode.TRANSITION || source == SMSL_IR.NONE || event == SMSL_IR.NONE) continue;
+            next[(source << eventBits) | event] = code.result(i);
+        }
+    }
+
+    // Next state, or -1 if no transition handles the event
+    public int next(int state, int event) {
+        return next[(state << eventBits) | event];
+    }
+
+    public long memoryBytes() {
+        return (long) next.length * Integer.BYTES;
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Runs each compiler phase on its own for the JMH benchmarks; see smsl.bench.Phases
+public class SMSL_BenchmarkPhases implements smsl.bench.Phases {
+
+    @Override
+    public Object source(long lines, int transitionsPerState, int actionsPerState, double duplicateRatio)
+            throws IOException {
+        Path file = Files.createTempFile("smsl-bench-", ".smsl");
+        try {
+            SMSL_SpecGenerator.forLines(lines, transitionsPerState, actionsPerState, duplicateRatio, 42).write(file);
+            return SMSL_Source.fromFile(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Override
+    public Object lex(Object source) {
+        SMSL_Compiler compiler = new SMSL_Compiler();
+        compiler.lexicalAnalyzer((SMSL_Source) source);
+        return compiler.tokens();
+    }
+
+    @Override
+    public Object parse(Object tokens) {
+        return new SMSL_Parser((SMSL_TokenBuffer) tokens, new SMSL_Diagnostic.Collector()).parseProgram();
+    }
+
+    @Override
+    public Object semantic(Object program) {
+        SMSL_Compiler compiler = new SMSL_Compiler();
+        compiler.semanticAnalyzer((SMSL_Ast.Program) program);
+        return compiler;
+    }
+
+    @Override
+    public Object intermediateCode(Object program) {
+        return SMSL_Compiler.generateIntermediateCode((SMSL_Ast.Program) program);
+    }
+
+    @Override
+    public Object optimize(Object code) {
+        return SMSL_Compiler.optimizeCode((SMSL_IR) code);
+    }
+
+    @Override
+    public Object compile(Object source) {
+        return new SMSL_Compiler().compile((SMSL_Source) source);
+    }
+
+    @Override
+    public Object optimizedCode(int states, int transitionsPerState) {
+        String text = new SMSL_SpecGenerator(states, transitionsPerState, 0, 0, 42).generate();
+        return new SMSL_Compiler().compile(SMSL_Source.fromString("<generated>", text)).optimizedCode;
+    }
+
+    @Override
+    public Object layout(Object code, String layout) {
+        SMSL_IR ir = (SMSL_IR) code;
+        if (layout.equals("table")) return new SMSL_TransitionTable(ir);
+        if (layout.equals("chosen")) return SMSL_TableLayout.lower(ir);
+        return SMSL_TableLayout.lower(ir, SMSL_TableLayout.Kind.of(layout));
+    }
+
+    @Override
+    public Object lookups(Object code, int count) {
+        return new SMSL_TableLayout.Lookups(SMSL_TableLayout.lower((SMSL_IR) code), count, 42);
+    }
+
+    @Override
+    public int lookUp(Object layout, Object lookups) {
+        SMSL_TableLayout.Lookups pairs = (SMSL_TableLayout.Lookups) lookups;
+        return layout instanceof SMSL_TableLayout ? pairs.run((SMSL_TableLayout) layout)
+                : pairs.run((SMSL_TransitionTable) layout);
+    }
+}
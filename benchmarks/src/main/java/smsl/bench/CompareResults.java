@@ -0,0 +1,126 @@
+package smsl.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares two JMH result files written with -rf csv, for CI:
+//
+//   java -cp benchmarks.jar smsl.bench.CompareResults baseline.csv current.csv [--threshold=10]
+//
+// A benchmark regresses if its throughput drops, its average time grows, or its
+// allocation per operation (gc.alloc.rate.norm, from -prof gc) grows by more than
+// the threshold percent. Prints every shared result and exits with 1 on a
+// regression.
+public final class CompareResults {
+
+    private static final class Row {
+        final String key; // Benchmark name and parameters
+        final String mode;
+        final double score;
+        final String unit;
+
+        Row(String key, String mode, double score, String unit) {
+            this.key = key;
+            this.mode = mode;
+            this.score = score;
+            this.unit = unit;
+        }
+
+        // Whether a larger score is worse
+        boolean higherIsWorse() {
+            return key.contains("gc.alloc.rate.norm") || !mode.equals("thrpt");
+        }
+
+        boolean compared() {
+            int secondary = key.indexOf(':');
+            return secondary < 0 || key.startsWith("gc.alloc.rate.norm", secondary + 1)
+                    || key.startsWith("·gc.alloc.rate.norm", secondary + 1);
+        }
+    }
+
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        double threshold = 10;
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--threshold=")) {
+                threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() != 2) {
+            System.err.println("Usage: CompareResults baseline.csv current.csv [--threshold=percent]");
+            System.exit(2);
+        }
+
+        Map<String, Row> baseline = read(files.get(0));
+        Map<String, Row> current = read(files.get(1));
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+        for (Row now : current.values()) {
+            Row before = baseline.get(now.key);
+            if (before == null || !now.compared()) continue;
+            double change = before.score == 0 ? 0 : (now.score - before.score) / before.score * 100;
+            double worse = now.higherIsWorse() ? change : -change;
+            boolean regressed = worse > threshold;
+            if (regressed) regressions++;
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%% %s%s%n", now.key, before.score, now.score, change,
+                    now.unit, regressed ? "  REGRESSION" : "");
+        }
+        System.out.println(regressions + " regression(s) over " + threshold + "%");
+        if (regressions > 0) System.exit(1);
+    }
+
+    // Rows keyed by benchmark name and parameter values
+    private static Map<String, Row> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        Map<String, Row> rows = new LinkedHashMap<>();
+        if (lines.isEmpty()) return rows;
+        List<String> header = split(lines.get(0));
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+        if (mode < 0 || score < 0 || unit < 0) throw new IOException(file + " is not a JMH CSV result file");
+
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            List<String> cells = split(line);
+            StringBuilder key = new StringBuilder(cells.get(0));
+            for (int i = unit + 1; i < cells.size() && i < header.size(); i++) {
+                key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(cells.get(i));
+            }
+            String name = key.toString();
+            rows.put(name, new Row(name, cells.get(mode), Double.parseDouble(cells.get(score)), cells.get(unit)));
+        }
+        return rows;
+    }
+
+    // One CSV line; JMH quotes text cells and never puts quotes inside them
+    private static List<String> split(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+}
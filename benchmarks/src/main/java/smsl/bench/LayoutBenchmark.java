@@ -0,0 +1,59 @@
+package smsl.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Next-state lookup time per transition layout on generated specs: the layouts
+// the compiler chooses, each layout forced on every state, and the dense
+// SMSL_TransitionTable. Few states with many events favour dense and hash rows,
+// many states with a few events each favour switch rows. Every layout runs in a
+// fork of its own, so the JIT profiles only its code.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LayoutBenchmark {
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"8", "1000", "100000"})
+    public int states;
+
+    @Param({"3", "64"})
+    public int transitionsPerState;
+
+    @Param({"chosen", "switch", "dense", "sorted", "hash", "table"})
+    public String layout;
+
+    private Phases phases;
+    private Object table;
+    private Object lookups;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        phases = Phases.load();
+        Object code = phases.optimizedCode(states, transitionsPerState);
+        table = phases.layout(code, layout);
+        lookups = phases.lookups(code, LOOKUPS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int lookup() {
+        return phases.lookUp(table, lookups);
+    }
+}
@@ -0,0 +1,86 @@
+package smsl.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Throughput of each phase, and of the whole pipeline, on a generated spec. Each
+// phase gets the previous phase's output, prepared once per trial. Run with
+// -prof gc for allocation per operation; see the README for the CI workflow.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PhaseBenchmark {
+
+    @Param({"1000", "100000"})
+    public long lines;
+
+    @Param({"2"})
+    public int transitionsPerState;
+
+    @Param({"1"})
+    public int actionsPerState;
+
+    @Param({"0.1"})
+    public double duplicateRatio;
+
+    private Phases phases;
+    private Object source;
+    private Object tokens;
+    private Object program;
+    private Object intermediateCode;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        phases = Phases.load();
+        source = phases.source(lines, transitionsPerState, actionsPerState, duplicateRatio);
+        tokens = phases.lex(source);
+        program = phases.parse(tokens);
+        intermediateCode = phases.intermediateCode(program);
+    }
+
+    @Benchmark
+    public Object lexicalAnalysis() {
+        return phases.lex(source);
+    }
+
+    @Benchmark
+    public Object syntaxAnalysis() {
+        return phases.parse(tokens);
+    }
+
+    @Benchmark
+    public Object semanticAnalysis() {
+        return phases.semantic(program);
+    }
+
+    @Benchmark
+    public Object intermediateCodeGeneration() {
+        return phases.intermediateCode(program);
+    }
+
+    @Benchmark
+    public Object optimization() {
+        return phases.optimize(intermediateCode);
+    }
+
+    @Benchmark
+    public Object fullPipeline() {
+        return phases.compile(source);
+    }
+}
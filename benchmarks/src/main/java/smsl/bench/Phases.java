@@ -0,0 +1,44 @@
+package smsl.bench;
+
+import java.io.IOException;
+
+// The compiler's phases as seen from a named package. The compiler lives in the
+// unnamed package, which named packages can't import, and JMH can't generate
+// benchmarks in the unnamed package; SMSL_BenchmarkPhases implements this
+// interface there. Values are the compiler's own types, passed as Object.
+public interface Phases {
+    // A generated spec, written to a temporary file and loaded as an SMSL_Source
+    Object source(long lines, int transitionsPerState, int actionsPerState, double duplicateRatio)
+            throws IOException;
+
+    Object lex(Object source); // SMSL_Source -> SMSL_TokenBuffer
+
+    Object parse(Object tokens); // SMSL_TokenBuffer -> SMSL_Ast.Program
+
+    Object semantic(Object program); // SMSL_Ast.Program -> the analyzing SMSL_Compiler
+
+    Object intermediateCode(Object program); // SMSL_Ast.Program -> SMSL_IR
+
+    Object optimize(Object code); // SMSL_IR -> SMSL_IR
+
+    Object compile(Object source); // SMSL_Source -> SMSL_CompilationResult
+
+    // Optimized SMSL_IR of a generated spec with the given number of states
+    Object optimizedCode(int states, int transitionsPerState);
+
+    // SMSL_IR -> SMSL_TableLayout: "chosen", or one layout for every state by its
+    // label; "table" is the dense SMSL_TransitionTable instead
+    Object layout(Object code, String layout);
+
+    Object lookups(Object code, int count); // SMSL_IR -> SMSL_TableLayout.Lookups
+
+    int lookUp(Object layout, Object lookups); // Sum of the next states
+
+    static Phases load() {
+        try {
+            return (Phases) Class.forName("SMSL_BenchmarkPhases").getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("SMSL_BenchmarkPhases not on the classpath", e);
+        }
+    }
+}